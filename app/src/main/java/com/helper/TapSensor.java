@@ -28,7 +28,7 @@ public final class TapSensor {
     private final void start() {
         touchEvent.code((new Flow.Code() {
             public final void onAction(int i, boolean b, int i1, Object any) {
-                handleEvent((MotionEvent)any, i);
+                handleEvent((Flow.TouchSample)any, i);
             }
         }));
     }
@@ -42,10 +42,9 @@ public final class TapSensor {
         fingerId = 0;
     }
 
-    private final void handleEvent(MotionEvent event, int iButton) {
-        int index = event.getActionIndex();
-        int action = event.getActionMasked();
-        int pointerId = event.getPointerId(index);
+    private final void handleEvent(Flow.TouchSample event, int iButton) {
+        int action = event.iAction;
+        int pointerId = event.iPointerId;
         if (iTimer == 0L) { iTimer = System.currentTimeMillis(); }
 
         switch(action) {
@@ -63,7 +62,7 @@ public final class TapSensor {
             case MotionEvent.ACTION_CANCEL:
                 if (iFingerCount > 0 && fingerId == pointerId) {
                     iFingerCount--;
-                    flowOutput.run(iButton, 0, new TapSensor.TapData(iButton, touchTime, this.getTimer() - touchTime, event.getRawX(), event.getRawY()));
+                    flowOutput.run(iButton, 0, new TapSensor.TapData(iButton, touchTime, this.getTimer() - touchTime, event.rawX, event.rawY));
                 }
                 break;
         }
@@ -1,36 +1,28 @@
 package com.helper.lib;
 
-import android.app.Activity;
 import android.arch.lifecycle.Lifecycle;
 import android.arch.lifecycle.LifecycleObserver;
 import android.arch.lifecycle.OnLifecycleEvent;
-import android.graphics.Rect;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Message;
-import android.text.Editable;
-import android.text.TextWatcher;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.util.Log;
-import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewGroup;
-import android.view.ViewTreeObserver;
-import android.view.Window;
-import android.view.WindowManager;
 import android.view.inputmethod.EditorInfo;
-import android.widget.AdapterView;
-import android.widget.CheckBox;
-import android.widget.CompoundButton;
 import android.widget.EditText;
-import android.widget.ListView;
-import android.widget.Spinner;
-import android.widget.TextView;
+
+import com.helper.lib.EventMatcher.EventKey;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 // Version 2.1.8
 // Fixed keyboard bug
 // Added execute() method that can be called after a run event to execute code immediately see example 7
@@ -67,44 +59,102 @@ import java.util.List;
 // }  }
 // Example 7: new Flow().runDelayed(2000).execute(() -{})
 // Example 8: new Flow().runRepeat(500).execute(() -{})
-
-
-public class Flow {
-    private Flow nextFlow;
+//          : flow.runRepeat(8, false, 1000, Flow.Repeat.FIXED_RATE, Flow.Repeat.COALESCE) runs every second on a fixed grid, one run for missed ticks
+// Example 9: EventMatcher.EventKey keyGps = flow.eventKey("gps_fix") register event name once, flow.registerEvents(9, new EventMatcher.EventKey[]{keyGps, keyNet})
+//          : flow.event(keyGps, true) fires event using key, for high frequency sensor / network callbacks
+// Example 10: flow.registerUiEvent(10, editText, Flow.UiEvent.TEXT_CHANGED, Flow.Rate.DEBOUNCE, 500) action 10 runs once typing stops for 500ms
+// Example 11: flow.registerUiEvent(11, view, Flow.UiEvent.TOUCH) action 11 gets a Flow.TouchSample as data, recycled after onAction returns
+// Example 12: flow.run(12, false, Flow.Priority.BACKGROUND) bulk work, queued actions of Priority.INTERACTIVE run before it
+//          : flow.registerEvents(12, false, Flow.Priority.INTERACTIVE, events), flow.queueDepth(false, Flow.Priority.BACKGROUND)
+// Example 13: flow.setStats(true), then flow.stats().snapshot() returns queue wait, run time and throughput of each action
+// Example 14: new Flow(code, executor, new VirtualScheduler(0)) delayed and repeat actions follow a virtual clock, see VirtualScheduler
+// Example 15: flow.eventPool().setMaxSize(200) pool sized for many registered actions, flow.eventPool().misses() shows allocations
+// Example 16: flow.registerPattern(16, true, "login then 3*retry_failed without login_ok") action 16 runs each time pattern matches
+//          : "a or b", "(a or b) then c" also work, pattern is compiled once to a state machine, see EventPattern
+// Example 17: flow.registerEventWindow(17, false, 5000, events) action 17 runs only when all events fired within 5 seconds
+//          : flow.waitForEvents(17, false, 10000, events) action 17 runs with bSuccess = false if events are not all in after 10 seconds
+// Example 18: Flow.Pipe pipe = flow.pipeTo(nextFlow, 18, 64, Flow.Backpressure.BLOCK) then pipe.send(true, 0, item) in flow's onAction
+//          : action 18 of nextFlow gets each item, at most 64 wait in the pipe, pipe.toString() shows stage counters
+// Example 19: flow.setQueueLimit(false, 256, Flow.Overflow.COALESCE) a burst keeps at most 256 background actions queued,
+//          : a queued run of the same action takes the new data, flow.droppedCount(false), flow.coalescedCount(false)
+// Example 20: flowA.registerUiEvent(1, button, Flow.UiEvent.ON_CLICK) and flowB.registerUiEvent(2, button, Flow.UiEvent.ON_CLICK)
+//          : both actions run on click, each view has one ViewDispatcher that fans its callbacks out to all registrations
+// Example 21: getLifecycle().addObserver(flow) ui actions wait while activity is stopped, each action runs once with latest data on start
+//          : flow is stopped when activity is destroyed, flow.onStop() and flow.onStart() can also be called directly
+// Example 22: flow.registerEvents(22, events).runType(Flow.EVENT_UPDATE) action 22 runs on each of its events, a form can show progress
+//          : runType(Flow.RESULT_UPDATE) runs on every event once all fired, default Flow.RESULT_CHANGE runs only when result changes
+// Example 23: flow.on(1, handler1).on(2, true, handler2) each action runs its own Flow.Code, action 2 always on ui thread
+//          : no switch on iAction, actions without a handler still go to code(), flow.off(2) removes handler of action 2
+// Actions fired by events get an EventMatcher.Result as data, result.name(i), result.isSuccess(i), result.extra(i), result.obj(i)
+// it is recycled once onAction returns, copy values to keep them
+
+
+public class Flow implements LifecycleObserver {
+    private Flow nextFlow;                                                      // Stage last piped to, see pipeTo()
     private HThread hThread;
-    private View viewActRoot;
-    private boolean bRunning;
-    private int iSoftInputMode = -1;
-    private Rect rLast = new Rect();
-    private static int iThreadCount = 0;
-    private boolean bKeybVisible = false;
+    private View viewActRoot;                                                   // Root view of keyboard monitor, set by KEYBOARD_STATE_CHANGE
+    private volatile boolean bRunning;
+    private static Looper sTimerLooper;                                          // Shared thread for delayed and repeat timers of all Flows
     private static final int LOG_LEVEL = 4;
+    private static final int LOG_EVENT = 5;                                     // Per event trace, above LOG_LEVEL so event path does not build strings
     private static final String LOG_TAG = "Flow";
-    private static final int FLAG_REPEAT = 0x00000004;
-    private static final int FLAG_SUCCESS = 0x00000001;
-    private static final int FLAG_RUNonUI = 0x00000002;
-    private List<Action> listActions = new ArrayList<Action>();  // List of registered actions
-    private List<KeyboardState> keyList = new ArrayList<>();
-    private HashMap<View, TextWatcher> listTextListeners = new HashMap();        // list of text change listeners for a text field
+    private final EventMatcher matcher;                                         // Event matching, fired actions are queued on lanes
+    private List<KeyboardState> keyList = new ArrayList<>();                   // Keyboard listeners of this Flow, ui thread only
     private HashMap<View, KeyboardState> listKBListeners = new HashMap();        // list of keyboard state change listeners
+    private List<UiSender> listUiSenders = new CopyOnWriteArrayList<>();         // Senders of registered ui events, reset on pause
     private Execute code = null;                                                // Call back for onAction to be executed
+    private volatile HandlerTable handlers = HandlerTable.EMPTY;               // Per action handlers, see on(), code runs actions without one
+    private volatile FlowStats stats;                                           // Action timing, null when disabled
 
     // INTERFACES for code execution and keyboard listener
     private interface Execute {}
     public interface Run extends Execute{ public void onAction();}
-    private interface KeyboardState { public void onStateChange(boolean bVisible); }
+    private interface KeyboardState { public void onStateChange(boolean bVisible, int iHeight); }
     public interface Code extends Execute{ public void onAction(int iAction, boolean bSuccess, int iExtra, Object data); }
 
+    // CONSTRUCTORS without executor share WorkerPool threads with all other Flows, an action that blocks holds a shared thread,
+    // so a Flow that blocks, or feeds a BLOCK pipe, should get its own, new Flow(code, WorkerPool.create("Sync_", 1))
     public Flow(){ this(null); }
-    public Flow(Code codeCallback) {
-        bRunning = true;
+    public Flow(Code codeCallback) { this(codeCallback, WorkerPool.shared()); }
+    public Flow(Code codeCallback, Executor executor) { this(codeCallback, executor, LooperScheduler.shared()); }
+    public Flow(Code codeCallback, Executor executor, TimerScheduler scheduler) {   // executor runs background actions, they still run in order
+        bRunning = true;                                                            // scheduler times delayed and repeat actions
         code = codeCallback;
-        hThread = new HThread();
+        hThread = new HThread(executor, scheduler);
+        matcher = new EventMatcher(new EventMatcher.Sink() {                    // windows and timeouts use the same scheduler
+            @Override public void onFire(EventMatcher.Action action, boolean bSuccess) { ((Action) action).send(bSuccess); }
+        }, EventMatcher.EventPool.DEFAULT_SIZE, scheduler);
     }
 
     public void code(Code codeCallback){  code = codeCallback; }
     public void execute(Execute CodeOrRunCallback){ code = CodeOrRunCallback;  }
 
+    // METHODS per action handlers, action runs its own handler instead of code(), so no switch on iAction is needed
+    // with bRunOnUI handler always runs on that thread, whatever run(), event, pipe or timer sent the action, else on the lane it was sent to
+    public Flow on(int iAction, Code handler) { return setHandler(iAction, handler, HandlerTable.ANY); }
+    public Flow on(int iAction, boolean bRunOnUI, Code handler) { return setHandler(iAction, handler, bRunOnUI ? HandlerTable.UI : HandlerTable.BACKGROUND); }
+    public Flow on(int iAction, Run handler) { return setHandler(iAction, runCode(handler), HandlerTable.ANY); }
+    public Flow on(int iAction, boolean bRunOnUI, Run handler) { return setHandler(iAction, runCode(handler), bRunOnUI ? HandlerTable.UI : HandlerTable.BACKGROUND); }
+    public synchronized Flow off(int iAction) { handlers = handlers.without(iAction); return this; }
+
+    private synchronized Flow setHandler(int iAction, Code handler, int iThread) {
+        if (handler == null) throw new IllegalArgumentException("ACTION: " + iAction + " handler is null");
+        handlers = handlers.with(iAction, handler, iThread);       // replaces handler already set for action
+        return this;
+    }
+
+    private static Code runCode(final Run run) {
+        if (run == null) return null;
+        return new Code() {
+            @Override public void onAction(int iAction, boolean bSuccess, int iExtra, Object data) { run.onAction(); }
+        };
+    }
+
+    // RUN TYPES of registered actions, set with runType() on the action registration returns
+    public static final int RESULT_CHANGE = EventMatcher.RESULT_CHANGE;     // all events fired and result changed, default
+    public static final int RESULT_UPDATE = EventMatcher.RESULT_UPDATE;     // all events fired, then on each event of the action
+    public static final int EVENT_UPDATE = EventMatcher.EVENT_UPDATE;       // each event of the action, bSuccess true once all fired and succeeded
+
     public class UiEvent{
         // EVENTS for which listeners are set
         public static final int TOUCH = 3;
@@ -118,34 +168,73 @@ public class Flow {
         public static final int LAYOUT_CHANGE = 11; //   called when a view is loaded with width and height set
     }
 
+    public class Rate{
+        // RATE modes for ui events, callbacks are coalesced on ui thread before anything is queued
+        public static final int ALL = 0;            // every callback is sent
+        public static final int DEBOUNCE = 1;       // sent once callbacks stop for period, with latest values
+        public static final int THROTTLE = 2;       // first callback sent at once, then at most one per period, last values are not lost
+        public static final int SAMPLE = 3;         // latest values sent once every period while callbacks arrive
+        public static final int IDLE = 4;           // latest values sent when ui thread has nothing else to do
+    }
+
+    public class Priority{
+        // PRIORITY classes, each has its own queue in a lane, higher class runs first, lower ones are never starved
+        public static final int INTERACTIVE = 0;    // user facing, ui events are sent with this class
+        public static final int DEFAULT = 1;        // run(), registered events, delayed and repeat actions
+        public static final int BACKGROUND = 2;     // bulk work, sync, prefetch
+    }
+
+    public class Repeat{
+        // REPEAT modes, runs are timed from absolute deadlines, so time taken by handler or code does not add drift
+        public static final int FIXED_RATE = ActionTimers.FIXED_RATE;     // runs at start + n * period
+        public static final int FIXED_DELAY = ActionTimers.FIXED_DELAY;   // next run is period after last run finished
+        // MISSED tick policy for FIXED_RATE, when runs fall behind by more than a period
+        public static final int SKIP = ActionTimers.SKIP;                 // missed ticks are dropped, next run stays on the period grid
+        public static final int CATCH_UP = ActionTimers.CATCH_UP;         // missed ticks run one after another until back on time
+        public static final int COALESCE = ActionTimers.COALESCE;         // one run for all missed ticks, data is Integer count of ticks it stands for
+    }
+
+    public class Backpressure{
+        // BACKPRESSURE of a full pipe between stages, see pipeTo()
+        public static final int BLOCK = 0;          // producer waits for space, ui thread is never blocked, its item is dropped instead
+        public static final int DROP_OLDEST = 1;    // oldest waiting item is dropped, latest data wins
+        public static final int DROP_NEWEST = 2;    // new item is dropped, send() returns false
+    }
+
+    public class Overflow{
+        // OVERFLOW of a lane with a queue limit, see setQueueLimit()
+        public static final int REJECT = 0;         // new action is dropped
+        public static final int DROP_OLDEST = 1;    // oldest queued action of lowest priority class is dropped
+        public static final int COALESCE = 2;       // queued run of same action gets new data, else oldest is dropped
+    }
+
     // STATE METHODS pause, resume, stop the action, should be called to release resources
     public void pause() {
         bRunning = false;
-        hThread.mHandler.removeCallbacksAndMessages(null);
-        hThread.mUiHandler.removeCallbacksAndMessages(null);
+        hThread.clear();
     }
 
     public void resume() { bRunning = true; }
 
     public void stop() {
         code = null;
+        handlers = HandlerTable.EMPTY;
+        bRunning = false;
         try {
-            for (int i = 0; i < listActions.size(); i++) {
-                listActions.get(i).recycle();
-            }
-            if(viewActRoot != null){
-                viewActRoot.getViewTreeObserver().removeOnGlobalLayoutListener(null);
-                viewActRoot = null;
-            }
-            hThread.mHandler.removeCallbacksAndMessages(null);
-            hThread.mUiHandler.removeCallbacksAndMessages(null);
+            matcher.clear();
+            removeUiListeners();
+            removeKeybListener();
             hThread.stop();
-            listActions = null;
-            Event.releasePool();
-            bRunning = false;
         } catch (Exception e) {}
     }
 
+    // LIFECYCLE METHODS for getLifecycle().addObserver(flow), ui actions are held while screen is not visible
+    // queued runs of an action are compacted to one with latest data, background actions and events go on as before
+    @OnLifecycleEvent(Lifecycle.Event.ON_START) public void onStart() { hThread.uiLane.release(); }
+    @OnLifecycleEvent(Lifecycle.Event.ON_STOP) public void onStop() { hThread.uiLane.hold(); }
+    @OnLifecycleEvent(Lifecycle.Event.ON_DESTROY) public void onDestroy() { stop(); }
+    public boolean isHeld() { return hThread.uiLane.isHeld(); }
+
 
     // METHODS run an action
     public Flow run(boolean bRunOnUi) { run(-1, true); return  this; }
@@ -157,12 +246,48 @@ public class Flow {
         else hThread.run(iAction, bSuccess, iExtra, obj);
         return  this;
     }
+    public Flow run(int iAction, boolean bRunOnUi, int iPriority) { run(iAction, bRunOnUi, iPriority, true, 0, null); return  this;}
+    public Flow run(int iAction, boolean bRunOnUi, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+        if(bRunOnUi) hThread.runOnUI(iAction, iPriority, bSuccess, iExtra, obj);
+        else hThread.run(iAction, iPriority, bSuccess, iExtra, obj);
+        return  this;
+    }
+
+    // METHOD returns event pool of this Flow, for hit/miss stats and sizing, stop() empties only this Flow's pool
+    public EventMatcher.EventPool eventPool() { return matcher.eventPool(); }
+
+    // METHODS action stats, recording starts from zero each time it is enabled
+    public void setStats(boolean bEnable) { stats = bEnable ? new FlowStats() : null; }
+    public FlowStats stats() { return stats; }
+
+    // METHOD returns number of actions queued, not yet running, in a priority class of ui or background lane
+    public int queueDepth(boolean bUi, int iPriority) { return (bUi ? hThread.uiLane : hThread.bgLane).depth(iPriority); }
+
+    // METHODS queue limit of ui or background lane, iCapacity 0 removes it, actions already queued are kept
+    // pipe drains and FIXED_DELAY repeat runs are always queued and never dropped, so they may pass the limit
+    // coalescedCount also counts runs merged while ui lane is held, see onStop()
+    public void setQueueLimit(boolean bUi, int iCapacity, int iOverflow) { (bUi ? hThread.uiLane : hThread.bgLane).setLimit(iCapacity, iOverflow); }
+    public long droppedCount(boolean bUi) { return (bUi ? hThread.uiLane : hThread.bgLane).dropped(); }
+    public long coalescedCount(boolean bUi) { return (bUi ? hThread.uiLane : hThread.bgLane).coalesced(); }
+
+    // METHODS pipeline, items sent to the pipe run as iAction of next stage, at most iCapacity wait between the stages
+    // a BLOCK producer holds its thread while waiting, so give it its own executor when stages share a small pool
+    public Pipe pipeTo(Flow next, int iAction, int iCapacity, int iBackpressure) { return pipeTo(next, iAction, false, Priority.DEFAULT, iCapacity, iBackpressure); }
+    public Pipe pipeTo(Flow next, int iAction, boolean bRunOnUI, int iPriority, int iCapacity, int iBackpressure) {
+        if (next == this && iBackpressure == Backpressure.BLOCK) throw new IllegalArgumentException("BLOCK pipe to same Flow would wait on itself");
+        Pipe pipe = next.new Pipe(iAction, bRunOnUI, iPriority, iCapacity, iBackpressure);
+        nextFlow = next;
+        return pipe;
+    }
+    public Flow next() { return nextFlow; }
 
     public Flow runRepeat(long iDelay) { hThread.runRepeat(false, -1, true, 0, iDelay);  return  this;}
     public Flow runRepeat(int iAction, long iDelay) { hThread.runRepeat(false, iAction, true, 0, iDelay);  return  this;}
     public Flow runRepeat(int iAction, boolean bRunOnUi, long iDelay) { hThread.runRepeat(bRunOnUi, iAction, true, 0, iDelay);  return  this;}
     public Flow runRepeat(int iAction, boolean bSuccess, int iExtra, long iDelay) { hThread.runRepeat(false, iAction, bSuccess, iExtra, iDelay);  return  this;}
     public Flow runRepeat(int iAction, boolean bRunOnUi, boolean bSuccess, int iExtra, long iDelay) { hThread.runRepeat(bRunOnUi, iAction, bSuccess, iExtra, iDelay);  return  this;}
+    public Flow runRepeat(int iAction, boolean bRunOnUi, long iPeriod, int iMode, int iMissed) { hThread.runRepeat(bRunOnUi, iAction, true, 0, iPeriod, iMode, iMissed);  return  this;}
+    public Flow runRepeat(int iAction, boolean bRunOnUi, boolean bSuccess, int iExtra, long iPeriod, int iMode, int iMissed) { hThread.runRepeat(bRunOnUi, iAction, bSuccess, iExtra, iPeriod, iMode, iMissed);  return  this;}
 
     // METHODS run action delayed
     public Flow runDelayed( long iTime) {
@@ -189,53 +314,89 @@ public class Flow {
     }
 
     private void runDelayedOnUI(int iAction, boolean bSuccess, int iExtra, Object object, long iTime) {
-        Message msg = Message.obtain();
-        msg.what = iAction;
-        msg.arg1 = iExtra;
-        msg.arg2 = bSuccess ? 1 : 0;
-        msg.obj = object;
-        hThread.mUiHandler.removeMessages(iAction);                             // Remove any pending messages in queue
-        hThread.mUiHandler.sendMessageDelayed(msg, iTime);
+        hThread.runDelayed(true, iAction, bSuccess, iExtra, object, iTime);
     }
 
     private void runDelayed2(int iAction, boolean bSuccess, int iExtra,Object object, long iTime) {
-        Message msg = Message.obtain();
-        msg.what = iAction;
-        msg.arg1 = iExtra;
-        msg.arg2 = bSuccess ? 1 : 0;
-        msg.obj = object;
-        hThread.mHandler.removeMessages(iAction);                               // Remove any pending messages in queue
-        hThread.mHandler.sendMessageDelayed(msg, iTime);
-    }
-
-    // METHODS events registration
-    public void registerEvents(int iAction, String events[]) { registerEvents(iAction, false, false, false, events);}
-    public void waitForEvents(int iAction, String events[]) { registerEvents(iAction, false, true, false, events); }
-    public void waitForEvents( int iAction, boolean bRunOnUI, String events[]) { registerEvents(iAction, bRunOnUI, true, false, events);}
-    public void registerEvents(int iAction, boolean bRunOnUI, String events[]) { registerEvents(iAction, bRunOnUI, false, false, events); }
-    public void registerEventSequence( int iAction, boolean bRunOnUI, String events[]) { registerEvents(iAction, bRunOnUI, false, true, events);}
-    private void registerEvents(int iAction, boolean bRunOnUI, boolean bRunOnce, boolean bSequence, String events[]){
-        unRegisterEvents(iAction);  // to stop duplication, remove if the action already exists
-        Action aAction = new Action(iAction, events);
-        aAction.bRunOnUI = bRunOnUI;
-        aAction.bFireOnce = bRunOnce;                  // fired only once, then removed
-        aAction.bSequence = bSequence;                 // events have to be in sequence for the action to be fired
-        listActions.add( aAction);
+        hThread.runDelayed(false, iAction, bSuccess, iExtra, object, iTime);
+    }
+
+    // METHODS events registration, return registered action, so run type can be chained, registerEvents(1, events).runType(Flow.EVENT_UPDATE)
+    public Action registerEvents(int iAction, String events[]) { return registerEvents(iAction, false, false, false, eventKeys(events));}
+    public Action waitForEvents(int iAction, String events[]) { return registerEvents(iAction, false, true, false, eventKeys(events)); }
+    public Action waitForEvents( int iAction, boolean bRunOnUI, String events[]) { return registerEvents(iAction, bRunOnUI, true, false, eventKeys(events));}
+    public Action registerEvents(int iAction, boolean bRunOnUI, String events[]) { return registerEvents(iAction, bRunOnUI, false, false, eventKeys(events)); }
+    public Action registerEventSequence( int iAction, boolean bRunOnUI, String events[]) { return registerEvents(iAction, bRunOnUI, false, true, eventKeys(events));}
+    public Action registerEvents(int iAction, EventKey keys[]) { return registerEvents(iAction, false, false, false, keys);}
+    public Action waitForEvents(int iAction, EventKey keys[]) { return registerEvents(iAction, false, true, false, keys); }
+    public Action waitForEvents( int iAction, boolean bRunOnUI, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, true, false, keys);}
+    public Action registerEvents(int iAction, boolean bRunOnUI, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, false, false, keys); }
+    public Action registerEventSequence( int iAction, boolean bRunOnUI, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, false, true, keys);}
+    public Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, String events[]) { return registerEvents(iAction, bRunOnUI, iPriority, false, false, eventKeys(events)); }
+    public Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, iPriority, false, false, keys); }
+    private Action registerEvents(int iAction, boolean bRunOnUI, boolean bRunOnce, boolean bSequence, EventKey keys[]){
+        return registerEvents(iAction, bRunOnUI, Priority.DEFAULT, bRunOnce, bSequence, keys);
+    }
+    private Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, boolean bRunOnce, boolean bSequence, EventKey keys[]){
+        return registerEvents(iAction, bRunOnUI, iPriority, bRunOnce, bSequence, 0, 0, keys);
+    }
+    private Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, boolean bRunOnce, boolean bSequence, long iWindow, long iTimeout, EventKey keys[]){
+        checkPriority(iPriority);
+        // bRunOnce fired only once, then removed, bSequence events have to be in sequence for the action to be fired
+        Action aAction = new Action(iAction, keys, bSequence, bRunOnce, bRunOnUI, iPriority);
+        if (iWindow > 0) aAction.window(iWindow);
+        if (iTimeout > 0) aAction.timeout(iTimeout);
+        matcher.register(aAction);                     // replaces action if it already exists, to stop duplication
         StringBuffer buf = new StringBuffer(400);
-        for(int i =0; i< events.length; i++){ buf.append(events[i]+", ");}
-        log("ACTION: " + iAction + " registered  EVENTS = {" +buf.toString()+"}");
+        for(int i =0; i< keys.length; i++){ buf.append(keys[i].name()+", ");}
+        log("ACTION: " + iAction + " registered  EVENTS = {" +buf.toString()+"}" + (iWindow > 0 ? " window " + iWindow : "") + (iTimeout > 0 ? " timeout " + iTimeout : ""));
+        return aAction;
     }
 
-    public void unRegisterEvents(int iAction){
-        for (int i = 0; i< listActions.size(); i++){ // remove action if it already exists
-            if(listActions.get(i).iAction == iAction){
-                listActions.remove(i);
-                log("ACTION: "+iAction+ " exists, removing it  ");
-                break;
-            }
+    // METHODS time bound registration, millis of the Flow scheduler clock, window: events older than iWindow do not count
+    // timeout: action runs with bSuccess false once if it has not run within iTimeout of registration or of first event after its last run
+    public Action registerEventWindow(int iAction, boolean bRunOnUI, long iWindow, String events[]) { return registerEvents(iAction, bRunOnUI, Priority.DEFAULT, false, false, iWindow, 0, eventKeys(events)); }
+    public Action registerEventWindow(int iAction, boolean bRunOnUI, long iWindow, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, Priority.DEFAULT, false, false, iWindow, 0, keys); }
+    public Action waitForEvents(int iAction, boolean bRunOnUI, long iTimeout, String events[]) { return registerEvents(iAction, bRunOnUI, Priority.DEFAULT, true, false, 0, iTimeout, eventKeys(events)); }
+    public Action waitForEvents(int iAction, boolean bRunOnUI, long iTimeout, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, Priority.DEFAULT, true, false, 0, iTimeout, keys); }
+    public Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, long iWindow, long iTimeout, String events[]) { return registerEvents(iAction, bRunOnUI, iPriority, false, false, iWindow, iTimeout, eventKeys(events)); }
+    public Action registerEvents(int iAction, boolean bRunOnUI, int iPriority, long iWindow, long iTimeout, EventKey keys[]) { return registerEvents(iAction, bRunOnUI, iPriority, false, false, iWindow, iTimeout, keys); }
+
+    // METHODS pattern registration, throws IllegalArgumentException if pattern is not valid
+    public Action registerPattern(int iAction, String sPattern) { return registerPattern(iAction, false, Priority.DEFAULT, false, EventPattern.compile(sPattern)); }
+    public Action registerPattern(int iAction, boolean bRunOnUI, String sPattern) { return registerPattern(iAction, bRunOnUI, Priority.DEFAULT, false, EventPattern.compile(sPattern)); }
+    public Action registerPattern(int iAction, boolean bRunOnUI, int iPriority, String sPattern) { return registerPattern(iAction, bRunOnUI, iPriority, false, EventPattern.compile(sPattern)); }
+    public Action registerPattern(int iAction, boolean bRunOnUI, int iPriority, EventPattern pattern) { return registerPattern(iAction, bRunOnUI, iPriority, false, pattern); }
+    public Action waitForPattern(int iAction, boolean bRunOnUI, String sPattern) { return registerPattern(iAction, bRunOnUI, Priority.DEFAULT, true, EventPattern.compile(sPattern)); }
+    private Action registerPattern(int iAction, boolean bRunOnUI, int iPriority, boolean bRunOnce, EventPattern pattern){
+        checkPriority(iPriority);
+        Action aAction = new Action(iAction, pattern, eventKeys(pattern.symbols()), bRunOnce, bRunOnUI, iPriority);
+        matcher.register(aAction);                     // replaces action if it already exists, to stop duplication
+        log("ACTION: " + iAction + " registered  PATTERN = {" + pattern + "} states " + pattern.states());
+        return aAction;
+    }
+
+    // METHOD rate modes that time callbacks need a period, IDLE waits for the ui thread and ALL sends at once
+    private static void checkRate(int iRate, long iPeriod) {
+        if (iRate < Rate.ALL || iRate > Rate.IDLE) throw new IllegalArgumentException("Unknown rate " + iRate);
+        if (iPeriod <= 0 && (iRate == Rate.DEBOUNCE || iRate == Rate.THROTTLE || iRate == Rate.SAMPLE)) {
+            throw new IllegalArgumentException("Rate " + iRate + " needs a period > 0, was " + iPeriod);
         }
     }
 
+    private static void checkPriority(int iPriority) {
+        if (iPriority < Priority.INTERACTIVE || iPriority > Priority.BACKGROUND)
+            throw new IllegalArgumentException("Unknown priority " + iPriority);
+    }
+
+    public void unRegisterEvents(int iAction){
+        if(matcher.unRegister(iAction)) log("ACTION: "+iAction+ " exists, removing it  ");
+    }
+
+    // METHODS event keys, register an event name once, then fire it with the key without String hashing or comparison
+    public EventKey eventKey(String sEvent){ return matcher.eventKey(sEvent); }
+    public EventKey[] eventKeys(String... events){ return matcher.eventKeys(events); }
+
     // METHODS registers/un registers UI events for Action
     public void unRegisterUIEvent( View view, int iEvent) { unRegisterListener(view, iEvent); }
     public void registerUiEvent( View view) { registerListener(false, -1, view, UiEvent.ON_CLICK); }
@@ -245,6 +406,8 @@ public class Flow {
     public void registerUiEvent(int iStep, boolean bRunOnUI, View view) { registerListener(bRunOnUI, iStep, view, UiEvent.ON_CLICK); }
     public Flow registerUiEvent( boolean bRunOnUI, View view, int iEvent) { registerListener(bRunOnUI, -1, view, iEvent); return this; }
     public Flow registerUiEvent(int iAction, boolean bRunOnUI, View view, int iEvent) { registerListener(bRunOnUI, iAction, view, iEvent); return this; }
+    public Flow registerUiEvent(int iAction, View view, int iEvent, int iRate, long iPeriod) { registerListener(false, iAction, view, iEvent, iRate, iPeriod); return this; }
+    public Flow registerUiEvent(int iAction, boolean bRunOnUI, View view, int iEvent, int iRate, long iPeriod) { registerListener(bRunOnUI, iAction, view, iEvent, iRate, iPeriod); return this; }
 
     // METHODS to send event
     public void event(String sEvent) { event(sEvent, true, 0, null); }
@@ -253,14 +416,48 @@ public class Flow {
     public void event(String sEvent, boolean bSuccess, int iExtra, Object obj) {
         if (!bRunning) return;
 
-        log("EVENT:  "+ sEvent);
-        int iSize = listActions.size();
-        boolean bActionFired = false;
-        for (int i = 0; i < iSize; i++) {
-            bActionFired =  listActions.get(i).onEvent(sEvent, bSuccess, iExtra, obj);
-            if(bActionFired && listActions.get(i).bFireOnce){
-                listActions.remove(i);
-                log("Removing ACTION run once after been fired");
+        if (LOG_EVENT <= LOG_LEVEL) log(LOG_EVENT, "EVENT:  " + sEvent);
+        matcher.event(sEvent, bSuccess, iExtra, obj);
+    }
+
+    // METHODS to send event with a pre registered key, no String is touched on this path
+    public void event(EventKey key) { event(key, true, 0, null); }
+    public void event(EventKey key, boolean bSuccess) { event(key, bSuccess, 0, null); }
+    public void event(EventKey key, boolean bSuccess, int iExtra) { event(key, bSuccess, iExtra, null); }
+    public void event(EventKey key, boolean bSuccess, int iExtra, Object obj) {
+        if (!bRunning) return;
+        matcher.event(key, bSuccess, iExtra, obj);
+    }
+
+    // METHODS batch of events, all event states are set first, then each affected action is checked once
+    // Example: flow.beginBatch().event("name", true).event("email", true).event("age", false, 18, null).commit()
+    public Batch beginBatch() { return new Batch(); }
+    public void events(String... events) { beginBatch().event(events).commit(); }
+
+    // CLASS batch of events, one batch should be used by one thread, it can be reused after commit()
+    // fired actions are collected and queued on each lane together, in batch order
+    public class Batch extends EventMatcher.Batch implements EventMatcher.Sink {
+        private Task bgHead, bgTail, uiHead, uiTail;
+
+        private Batch() { super(matcher); }
+
+        @Override public void commit() {
+            if (!bRunning) { clear(); return; }
+            commit(this);
+            if (bgHead != null) hThread.bgLane.post(bgHead, bgTail);
+            if (uiHead != null) hThread.uiLane.post(uiHead, uiTail);
+            bgHead = bgTail = uiHead = uiTail = null;
+        }
+
+        @Override public void onFire(EventMatcher.Action action, boolean bSuccess) {
+            Action act = (Action) action;
+            Task task = Task.obtain(act.id(), act.iPriority, bSuccess, 0, act.snapshot());
+            if (handlers.onUi(act.bRunOnUI, act.id())) {
+                if (uiTail == null) uiHead = task; else uiTail.next = task;
+                uiTail = task;
+            } else {
+                if (bgTail == null) bgHead = task; else bgTail.next = task;
+                bgTail = task;
             }
         }
     }
@@ -268,537 +465,1083 @@ public class Flow {
     // METHOD cancel a runDelay or RunRepeated
     public void cancelRun(int iAction) {
         if (!bRunning) return;
-        hThread.mHandler.removeMessages(iAction);
-        hThread.mUiHandler.removeMessages(iAction);
-    }
-
-    // CLASS for event Pool
-    public static class Event {
-        // EVENTS for self use
-        private static final int WAITING = 0;
-        private static final int SUCCESS = 1;
-        private static final int FAILURE = 2;
-
-        public Object obj;
-        public int iExtra;
-        public String sEvent;
-        public int iStatus = WAITING;   // 0 - waiting not fired yet, 1 - fired with success, 2- fired with failure
-        // Variable for pool
-        private Event next;             // Reference to next object
-        private static Event sPool;
-        private static int sPoolSize = 0;
-        private static final int MAX_POOL_SIZE = 50;
-        private static final Object sPoolSync = new Object();       // The lock used for synchronization
+        hThread.timers.cancelRepeat(iAction);
+        hThread.timers.cancelDelayed(iAction);
+        hThread.bgLane.remove(iAction);
+        hThread.uiLane.remove(iAction);
+    }
 
-        // CONSTRUCTOR - Private
-        private Event() {}
+    // CLASS for events for action, when all events occur action is triggered, matching is done by EventMatcher
+    public class Action extends EventMatcher.Action {
+        private final boolean bRunOnUI;                             // Code run on Background / UI thread
+        private final int iPriority;                                // Queue class of lane the action is sent to
 
-        // METHOD get pool object only through this method, so no direct allocation are made
-        public static Event obtain(String sId) {
-            synchronized (sPoolSync) {
-                if (sPool != null) {
-                    Event e = sPool;
-                    e.sEvent = sId;
-                    e.iStatus = WAITING;
-                    e.obj = null;
-                    e.iExtra = 0;
-                    sPool = e.next;
-                    e.next = null;
-                    sPoolSize--;
-                    return e;
-                }
-                Event eve = new Event();
-                eve.sEvent = sId;
-                return eve;
+        // CONSTRUCTOR
+        public Action(int iAction, EventKey keys[], boolean bSequence, boolean bFireOnce, boolean bRunOnUI, int iPriority) {
+            super(iAction, keys, bSequence, bFireOnce);
+            this.bRunOnUI = bRunOnUI;
+            this.iPriority = iPriority;
+        }
+
+        // CONSTRUCTOR pattern action, keys are events of pattern.symbols()
+        public Action(int iAction, EventPattern pattern, EventKey keys[], boolean bFireOnce, boolean bRunOnUI, int iPriority) {
+            super(iAction, pattern, keys, bFireOnce);
+            this.bRunOnUI = bRunOnUI;
+            this.iPriority = iPriority;
+        }
+
+        // METHOD queues fired action with a snapshot of its events, called holding action lock
+        private void send(boolean bSuccess) {
+            if (bRunOnUI) {
+                hThread.runOnUI(id(), iPriority, bSuccess, 0, snapshot());
+            } else {
+                hThread.run(id(), iPriority, bSuccess, 0, snapshot());
+            }
+        }
+    }
+
+    // CLASS for thread handler, background actions run on a serial lane over a shared executor instead of a thread per Flow
+    // delayed and repeat actions wait on timers of the scheduler, then join their lane so Flow order is kept
+    public class HThread implements ActionTimers.Target {
+        private Handler mUiHandler;                                 // Ui event rate timers
+        private Handler mUiLaneHandler;                             // Drains ui lane, kept apart so clear() never drops a scheduled drain
+        private Lane bgLane;                                        // Background actions, run in order on executor
+        private Lane uiLane;                                        // Ui actions, run in order on main looper
+        private final ActionTimers timers;                          // Delayed and repeat actions
+
+        HThread(Executor executor, TimerScheduler scheduler) {
+            timers = new ActionTimers(scheduler, this);
+            mUiHandler = new Handler(Looper.getMainLooper());
+            mUiLaneHandler = new Handler(Looper.getMainLooper());
+            bgLane = new Lane(executor);
+            uiLane = new Lane(new Executor() {
+                @Override public void execute(Runnable runnable) { mUiLaneHandler.post(runnable); }
+            });
+        }
+
+        public void run(int iStep) {
+            run(iStep, false);
+        }
+
+        public void run(int iStep, boolean bRunUI) {
+            if (bRunUI) {
+                runOnUI(iStep, true, 0, null);
+            } else {
+                run(iStep, true, 0, null);
             }
         }
 
-        // METHOD object added to the pool, to be reused
-        public void recycle() {
-            synchronized (sPoolSync) {
-                if (sPoolSize < MAX_POOL_SIZE) {
-                    next = sPool;
-                    sPool = this;
-                    sPoolSize++;
+        public void run(int iStep, boolean bSuccess, int iExtra, Object obj) {
+            run(iStep, Priority.DEFAULT, bSuccess, iExtra, obj);
+        }
+
+        public void runOnUI(int iStep, boolean bSuccess, int iExtra, Object obj) {
+            runOnUI(iStep, Priority.DEFAULT, bSuccess, iExtra, obj);
+        }
+
+        public void run(int iStep, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+            post(false, iStep, iPriority, bSuccess, iExtra, obj);
+        }
+
+        public void runOnUI(int iStep, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+            post(true, iStep, iPriority, bSuccess, iExtra, obj);
+        }
+
+        // METHOD queues action on ui or background lane, thread set with on() decides over bUi
+        private void post(boolean bUi, int iStep, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+            checkPriority(iPriority);
+            if (bRunning) {
+                (handlers.onUi(bUi, iStep) ? uiLane : bgLane).post(iStep, iPriority, bSuccess, iExtra, obj);
+            } else {
+                releaseData(obj);
+            }
+        }
+
+        public void runDelayed(boolean bRunOnUI, int iStep, boolean bSuccess, int iExtra, Object obj, long iDelay) {
+            timers.runDelayed(bRunOnUI, iStep, bSuccess, iExtra, obj, iDelay);
+        }
+
+        public void runRepeat(boolean bRunOnUI, int iStep, boolean bSuccess, int iExtra, long iDelay) {
+            runRepeat(bRunOnUI, iStep, bSuccess, iExtra, iDelay, Repeat.FIXED_RATE, Repeat.SKIP);
+        }
+
+        // METHOD starts a repeat, first run is now, a running repeat of same action is replaced
+        public void runRepeat(boolean bRunOnUI, int iStep, boolean bSuccess, int iExtra, long iPeriod, int iMode, int iMissed) {
+            ActionTimers.checkRepeat(iPeriod, iMode, iMissed);         // rejected even while stopped
+            if (bRunning) {
+                timers.runRepeat(bRunOnUI, iStep, bSuccess, iExtra, iPeriod, iMode, iMissed);
+            }
+        }
+
+        // METHOD runs a FIXED_DELAY repeat, then sets its next deadline
+        private void executeRepeat(int iAction, boolean bSuccess, int iExtra, ActionTimers.Repeat repeat) {
+            if (repeat.isCancelled()) return;
+            execute(iAction, bSuccess, iExtra, null);
+            timers.repeatDone(repeat);
+        }
+
+        // METHOD timer is due, scheduler thread only waits, action runs on Flow lane
+        @Override public void onTimer(boolean bUi, int iAction, boolean bSuccess, int iExtra, Object obj) {
+            if (!bRunning) {
+                releaseData(obj);
+            } else if (handlers.onUi(bUi, iAction)) {
+                uiLane.post(iAction, Priority.DEFAULT, bSuccess, iExtra, obj);
+            } else {
+                bgLane.post(iAction, Priority.DEFAULT, bSuccess, iExtra, obj);
+            }
+        }
+
+        @Override public void onDrop(Object obj) { releaseData(obj); }
+
+        // METHOD runs handler of action, or code if action has none, on lane or ui thread, pooled data is recycled once code returns
+        private void execute(int iAction, boolean bSuccess, int iExtra, Object obj) {
+            Code handler = handlers.get(iAction);
+            Execute exe = code;
+            try {
+                if (handler != null) {
+                    handler.onAction(iAction, bSuccess, iExtra, obj);
+                } else if(exe != null){
+                    if(exe instanceof Code)
+                        ((Code)exe).onAction(iAction, bSuccess, iExtra, obj);
+                    else
+                        ((Run)exe).onAction();
                 }
+            } finally {
+                releaseData(obj);
             }
         }
 
-        // METHOD release pool, ready for garbage collection
-        public static void releasePool() {
-            sPoolSize = 0;
-            sPool = null;
+        // METHOD removes pending messages and queued actions
+        private void clear() {
+            timers.clear();
+            mUiHandler.removeCallbacksAndMessages(null);
+            bgLane.clear();
+            uiLane.clear();
+            for (UiSender sender : listUiSenders) { sender.reset(); }
+        }
+
+        public void stop() {
+            clear();                                        // timer looper is shared, so it is not quit
         }
     }
 
-    // CLASS for events for action, when all events occur action is triggered
-    public class Action {
-        private int iAction;                                      // Code step to execute for this action
-        private int iEventCount;                                    // How many event are for this action code to be triggered
-        private boolean bSequence = false;                           // Only trigger when events occur in right order
-        //   private boolean bEventFound;
-        private boolean bRunOnUI = false;                           // Code run on Background / UI thread
-        public boolean bFireOnce = false;                           // Clear Action once fired, used for wait action
-        private int iSetStatus = Event.WAITING;                     // Event set status as a whole, waiting, success, non success
-        private List<Event> listEvents = new ArrayList<>();         // List to store events needed for this action
+    // CLASS sends callbacks of a registered ui event to its action, applying rate mode, used on ui thread only
+    // view callbacks come through the view's ViewDispatcher, kinds() are the callbacks the ui event needs
+    private final class UiSender implements Runnable, MessageQueue.IdleHandler, ViewDispatcher.Receiver {
+        private final int iAction;
+        private final boolean bRunOnUI;
+        private final View view;
+        private final int iListener;
+        private final int iRate;
+        private final long iPeriod;
+        private boolean bSuccess;                                   // Latest values, waiting to be sent
+        private int iExtra;
+        private Object obj;
+        private boolean bPending = false;
+        private boolean bScheduled = false;                         // Timer or idle handler is set
+        private long iLastSent = -1;
+
+        UiSender(int iAction, boolean bRunOnUI, View view, int iListener, int iRate, long iPeriod) {
+            this.iAction = iAction;
+            this.bRunOnUI = bRunOnUI;
+            this.view = view;
+            this.iListener = iListener;
+            this.iRate = iRate;
+            this.iPeriod = iPeriod;
+        }
 
-        // CONSTRUCTOR
-        public Action(int iCodeStep, String events[]) {
-            bSequence = false;
-            this.iAction = iCodeStep;
-            iEventCount = events.length;
-            for (int i = 0; i < iEventCount; i++) {
-                listEvents.add(Event.obtain(events[i]));            // get events from events pool
+        // METHOD view callbacks needed by ui event, as ViewDispatcher kind bits
+        int kinds() {
+            switch (iListener) {
+                case UiEvent.LAYOUT_CHANGE: return 1 << ViewDispatcher.LAYOUT;
+                case UiEvent.ON_CLICK:                              // NOTE: for editText  first tap get focus, 2nd to trigger onClick, unless focusable is setfalse()
+                    return 1 << ViewDispatcher.CLICK | (view instanceof EditText ? 1 << ViewDispatcher.FOCUS : 0);
+                case UiEvent.TEXT_ENTERED: return 1 << ViewDispatcher.FOCUS | 1 << ViewDispatcher.EDITOR;
+                case UiEvent.TEXT_CHANGED: return 1 << ViewDispatcher.TEXT;
+                case UiEvent.LIST_ITEM_SELECT: return 1 << ViewDispatcher.ITEM_CLICK;
+                case UiEvent.SPINNER_ITEM_SELECT: return 1 << ViewDispatcher.ITEM_SELECT;
+                case UiEvent.CHECKBOX_STATE: return 1 << ViewDispatcher.CHECKED;
+                case UiEvent.TOUCH: return 1 << ViewDispatcher.TOUCH;
             }
+            return 0;
         }
 
-        public Action(int iCodeStep, String events[], boolean bOrder) {
-            this.bSequence = bOrder;
-            this.iAction = iCodeStep;
-            iEventCount = events.length;
-            for (int i = 0; i < iEventCount; i++) {
-                listEvents.add(Event.obtain(events[i]));            // get events from events pool
+        // METHOD view callback to ui event values, returns true to consume touch
+        @Override public boolean onViewEvent(int iKind, View v, boolean bState, int iValue, Object obj) {
+            switch (iListener) {
+                case UiEvent.LAYOUT_CHANGE:                         // Triggered when ui layout changes with width/height values > 0
+                case UiEvent.ON_CLICK:
+                    if (bState) send(true, 0, view);                // click, or focus gained by EditText
+                    break;
+                case UiEvent.TEXT_ENTERED:
+                    if (iKind == ViewDispatcher.FOCUS && !bState) {
+                        logw(4, "Text ENTERED on Lost focus");
+                        send(true, bRunOnUI ? 0 : 1, view);
+                    } else if (iKind == ViewDispatcher.EDITOR && iValue == EditorInfo.IME_ACTION_DONE) {
+                        logw(4, "Text ENTERED on KB Done");
+                        send(true, bRunOnUI ? 0 : 3, view);
+                    }
+                    break;
+                case UiEvent.TEXT_CHANGED: send(true, 0, view); break;
+                case UiEvent.LIST_ITEM_SELECT: send(true, iValue, obj); break;
+                case UiEvent.SPINNER_ITEM_SELECT: send(bState, iValue, bState ? obj : view); break;
+                case UiEvent.CHECKBOX_STATE: send(bState, 0, view); break;
+                case UiEvent.TOUCH:                                 // bSuccess true for Touch down and Move, false when finger is lifted up
+                    send(iValue != MotionEvent.ACTION_UP, iValue, TouchSample.obtain((MotionEvent) obj));
+                    return true;
             }
+            return false;
         }
 
-        // METHOD recycles events and clears actions
-        public void recycle() {
-            int iSize = listEvents.size();
-            for (int i = 0; i < iSize; i++) {
-                listEvents.get(i).recycle();
-            }
-            listEvents = null;
-        }
-
-        // METHOD searches all actions, if any associated with this event
-        public boolean onEvent(String sEvent, Boolean bResult, int iExtra, Object obj) {
-            int iFired = 0;                     // How many have been fired
-            int iSuccess = 0;                   // How many has been successful
-            boolean bFound = false;
-            boolean bActionFired = false;
-            for (int i = 0; i < iEventCount; i++) {
-                Event event = listEvents.get(i);
-                if (sEvent.equals(event.sEvent)) {  // If event is found in this event list
-                    logw("{" + sEvent + "} fired for ACTION: " + iAction + " ");
-                    bFound = true;
-                    event.obj = obj;
-                    event.iExtra = iExtra;
-                    event.iStatus = bResult ? Event.SUCCESS : Event.FAILURE;
-                } else if(bSequence && event.iStatus == Event.WAITING){                              // if its a Sequence action, no event should be empty before current event
-                    if( i != 0 ){ listEvents.get(i-1).iStatus = Event.WAITING; }                    // reset last one, so they are always in sequence
+        void send(boolean bSuccess, int iExtra, Object obj) {
+            if (iRate == Rate.ALL) {
+                post(bSuccess, iExtra, obj);
+                return;
+            }
+            this.bSuccess = bSuccess;                               // keep latest, older values are coalesced
+            this.iExtra = iExtra;
+            releaseData(this.obj);
+            this.obj = obj;
+            bPending = true;
+            switch (iRate) {
+                case Rate.DEBOUNCE:                                 // restart timer on every callback
+                    hThread.mUiHandler.removeCallbacks(this);
+                    hThread.mUiHandler.postDelayed(this, iPeriod);
+                    bScheduled = true;
+                    break;
+                case Rate.THROTTLE:
+                    if (bScheduled) break;
+                    long iNow = SystemClock.uptimeMillis();
+                    if (iLastSent == -1 || iNow - iLastSent >= iPeriod) {
+                        flush(iNow);
+                    } else {                                        // send latest values when period ends
+                        bScheduled = true;
+                        hThread.mUiHandler.postAtTime(this, iLastSent + iPeriod);
+                    }
+                    break;
+                case Rate.SAMPLE:
+                    if (bScheduled) break;
+                    bScheduled = true;
+                    hThread.mUiHandler.postDelayed(this, iPeriod);
+                    break;
+                case Rate.IDLE:
+                    if (bScheduled) break;
+                    bScheduled = true;
+                    Looper.myQueue().addIdleHandler(this);
                     break;
+            }
+        }
+
+        @Override public void run() {
+            bScheduled = false;
+            flush(SystemClock.uptimeMillis());
+        }
+
+        @Override public boolean queueIdle() {
+            bScheduled = false;
+            flush(SystemClock.uptimeMillis());
+            return false;                                           // remove idle handler, added again by next callback
+        }
+
+        private void flush(long iNow) {
+            if (!bPending) return;
+            bPending = false;
+            iLastSent = iNow;
+            Object data = obj;
+            obj = null;
+            post(bSuccess, iExtra, data);
+        }
+
+        private void post(boolean bSuccess, int iExtra, Object obj) {     // user input, so it goes ahead of queued bulk work
+            if (bRunOnUI) {
+                hThread.runOnUI(iAction, Priority.INTERACTIVE, bSuccess, iExtra, obj);
+            } else {
+                hThread.run(iAction, Priority.INTERACTIVE, bSuccess, iExtra, obj);
+            }
+        }
+
+        // METHOD drops pending values, timers are removed by caller or find nothing pending
+        void reset() {
+            hThread.mUiHandler.removeCallbacks(this);
+            bPending = false;
+            bScheduled = false;
+            releaseData(obj);
+            obj = null;
+        }
+    }
+
+    // CLASS bounded buffer into an action of this Flow, items wait here not in the lane, so a full pipe costs no lane memory
+    // one drain task of a pipe is queued on the lane at a time, other actions of the stage run between its items
+    // pause, stop or cancelRun of the action empty the pipe and wake blocked producers
+    public final class Pipe {
+        private final int iAction;
+        private final boolean bRunOnUI;
+        private final int iPriority;
+        private final int iCapacity;
+        private final int iBackpressure;
+        private final boolean arrSuccess[];                         // Ring buffer of waiting items
+        private final int arrExtras[];
+        private final Object arrObjs[];
+        private int iHead = 0, iSize = 0;
+        private boolean bScheduled = false;                         // Drain task is queued or running on lane
+        private long iSent, iDelivered, iDropped, iBlocked, iBlockedNanos;   // Stage counters, guarded by pipe lock
+        private int iMaxDepth = 0;
+        private long iStart = System.nanoTime();
+
+        private Pipe(int iAction, boolean bRunOnUI, int iPriority, int iCapacity, int iBackpressure) {
+            checkPriority(iPriority);
+            if (iCapacity <= 0) throw new IllegalArgumentException("Pipe capacity must be > 0, was " + iCapacity);
+            if (iBackpressure < Backpressure.BLOCK || iBackpressure > Backpressure.DROP_NEWEST)
+                throw new IllegalArgumentException("Unknown backpressure " + iBackpressure);
+            this.iAction = iAction;
+            this.bRunOnUI = bRunOnUI;
+            this.iPriority = iPriority;
+            this.iCapacity = iCapacity;
+            this.iBackpressure = iBackpressure;
+            arrSuccess = new boolean[iCapacity];
+            arrExtras = new int[iCapacity];
+            arrObjs = new Object[iCapacity];
+        }
+
+        public boolean send(Object obj) { return send(true, 0, obj); }
+
+        // METHOD queues item for next stage, returns false if it was dropped, pipe full with DROP_NEWEST or stage not running
+        public boolean send(boolean bSuccess, int iExtra, Object obj) {
+            Object dropped = null;
+            boolean bAccepted, bSchedule = false;
+            synchronized (this) {
+                if (iSize == iCapacity && bRunning) {
+                    if (iBackpressure == Backpressure.BLOCK && Looper.myLooper() != Looper.getMainLooper()) {
+                        awaitSpace();
+                    } else if (iBackpressure == Backpressure.DROP_OLDEST) {
+                        dropped = arrObjs[iHead];
+                        arrObjs[iHead] = null;
+                        iHead = (iHead + 1) % iCapacity;
+                        iSize--;
+                        iDropped++;
+                    }
+                }
+                bAccepted = bRunning && iSize < iCapacity;          // still full for DROP_NEWEST, ui thread or interrupted wait
+                if (bAccepted) {
+                    int iTail = (iHead + iSize) % iCapacity;
+                    arrSuccess[iTail] = bSuccess;
+                    arrExtras[iTail] = iExtra;
+                    arrObjs[iTail] = obj;
+                    iSize++;
+                    iSent++;
+                    if (iSize > iMaxDepth) iMaxDepth = iSize;
+                    bSchedule = !bScheduled;
+                    bScheduled = true;
+                } else if (bRunning) {
+                    iDropped++;
                 }
+            }
+            releaseData(dropped);
+            if (!bAccepted) {
+                releaseData(obj);
+                return false;
+            }
+            if (bSchedule) schedule();
+            return true;
+        }
+
+        // METHOD waits until an item is taken or stage stops, called holding pipe lock
+        private void awaitSpace() {
+            long iWaitStart = System.nanoTime();
+            iBlocked++;
+            try {
+                while (iSize == iCapacity && bRunning) { wait(); }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();                 // keep interrupt for caller, item is dropped
+            }
+            iBlockedNanos += System.nanoTime() - iWaitStart;
+        }
 
-                switch (event.iStatus) {
-                    case Event.SUCCESS: iSuccess++;
-                    case Event.FAILURE: iFired++;    // Add to fired event regard less of success or failure
-                        break;
+        // METHOD queues drain task on lane, a lane that is not running drops it, which empties the pipe
+        private void schedule() {
+            if (bRunOnUI) {
+                hThread.runOnUI(iAction, iPriority, true, 0, this);
+            } else {
+                hThread.run(iAction, iPriority, true, 0, this);
+            }
+        }
+
+        // METHOD runs one item on the lane, then queues drain again if more wait, so other actions of the stage are not held up
+        private void deliver() {
+            boolean bSuccess;
+            int iExtra;
+            Object obj;
+            synchronized (this) {
+                if (iSize == 0) {
+                    bScheduled = false;
+                    return;
+                }
+                bSuccess = arrSuccess[iHead];
+                iExtra = arrExtras[iHead];
+                obj = arrObjs[iHead];
+                arrObjs[iHead] = null;
+                iHead = (iHead + 1) % iCapacity;
+                iSize--;
+                notifyAll();                                        // space for blocked producers
+            }
+            boolean bMore;
+            try {
+                hThread.execute(iAction, bSuccess, iExtra, obj);
+            } finally {
+                synchronized (this) {
+                    iDelivered++;
+                    bMore = iSize > 0;
+                    bScheduled = bMore;
                 }
+                if (bMore) schedule();
+            }
+        }
 
-                if(bFound && bSequence)
-                    break;
+        // METHOD drops waiting items, called when drain task is dropped by pause, stop or cancelRun
+        private void clear() {
+            Object arrDropped[];
+            synchronized (this) {
+                arrDropped = new Object[iSize];
+                for (int i = 0; i < iSize; i++) {
+                    int iPos = (iHead + i) % iCapacity;
+                    arrDropped[i] = arrObjs[iPos];
+                    arrObjs[iPos] = null;
+                }
+                iDropped += iSize;
+                iHead = iSize = 0;
+                bScheduled = false;
+                notifyAll();
             }
+            for (Object obj : arrDropped) { releaseData(obj); }
+        }
 
-            if (bFound) {                             // if event was found in this Action
-                logw("{" + sEvent + ":} for ACTION: " + iAction + ", Total Fired: "+iFired+" iSuccess: "+iSuccess);
-                if (iFired == iEventCount) {          // if all events for action has been fired
-                    boolean bSuccess = (iSuccess == iEventCount); // all events registered success
-                    int iCurStatus = bSuccess ? Event.SUCCESS : Event.FAILURE;
-                    if (iCurStatus != iSetStatus) {    // If there is a change in action status only then run code
-                        iSetStatus = iCurStatus;
-                        bActionFired = true;
-                        logw("ACTION:"+ iAction + " fired" );
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, bSuccess, 0, this.listEvents);
-                        } else {
-                            hThread.run(iAction, bSuccess, 0, this.listEvents);
-                        }
-                        if (bFireOnce) {
-                            recycle();                  // Recycle if its flagged for it
-                        }
+        // METHODS stage counters, since pipe was created or resetStats()
+        public synchronized int depth() { return iSize; }
+        public synchronized int maxDepth() { return iMaxDepth; }
+        public synchronized long sent() { return iSent; }
+        public synchronized long delivered() { return iDelivered; }
+        public synchronized long dropped() { return iDropped; }
+        public synchronized long blocked() { return iBlocked; }
+        public synchronized long blockedMillis() { return iBlockedNanos / 1000000; }
+        public synchronized double throughput() {                   // items delivered per second
+            long iPeriod = System.nanoTime() - iStart;
+            return iPeriod > 0 ? iDelivered * 1e9 / iPeriod : 0;
+        }
+
+        public synchronized void resetStats() {
+            iSent = iDelivered = iDropped = iBlocked = iBlockedNanos = 0;
+            iMaxDepth = iSize;
+            iStart = System.nanoTime();
+        }
+
+        @Override public String toString() {
+            double dRate = throughput();
+            synchronized (this) {
+                return "PIPE: action " + iAction + " depth " + iSize + "/" + iCapacity + " max " + iMaxDepth + " sent " + iSent
+                        + " delivered " + iDelivered + " dropped " + iDropped + " blocked " + iBlocked + " for " + iBlockedNanos / 1000000 + "ms"
+                        + " rate " + Math.round(dRate) + "/s";
+            }
+        }
+    }
+
+    // CLASS serial queue of actions for a Flow, drained on an executor, only one task of a lane runs at a time
+    // so actions keep their order while Flows share the executor threads
+    // each priority class has its own queue, highest non empty class is served first, order is kept within a class
+    // a waiting class passed over MAX_SKIP times is served next, so bulk work is slowed but never starved
+    private final class Lane implements Runnable {
+        private static final int MAX_BATCH = 32;                    // Tasks run before thread is handed to other Flows
+        private static final int PRIORITIES = Priority.BACKGROUND + 1;
+        private static final int MAX_SKIP = 8;                      // Runs of higher classes before a waiting class gets a turn
+        private final Executor executor;
+        private final Task arrHead[] = new Task[PRIORITIES];
+        private final Task arrTail[] = new Task[PRIORITIES];
+        private final int arrDepth[] = new int[PRIORITIES];         // Queued tasks per class
+        private final int arrSkipped[] = new int[PRIORITIES];       // Times a waiting class was passed over
+        private boolean bScheduled = false;                         // Lane is queued on or running on executor
+        private int iCapacity = 0;                                  // Max queued tasks, 0 for no limit
+        private int iOverflow = Overflow.REJECT;
+        private long iDropped, iCoalesced;                          // Tasks dropped by overflow, merged by overflow or while held
+        private boolean bHeld = false;                              // Not drained, runs of same action are merged, see hold()
+
+        Lane(Executor executor) { this.executor = executor; }
+
+        void post(int iAction, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+            Task task = Task.obtain(iAction, iPriority, bSuccess, iExtra, obj);
+            post(task, task);
+        }
+
+        // METHOD appends a chain of tasks under one lock, each to queue of its class, lane is scheduled at most once
+        void post(Task first, Task last) {
+            boolean bSchedule;
+            FlowStats st = stats;
+            long iNow = st != null ? System.nanoTime() : 0;
+            synchronized (this) {
+                Task task = first;
+                while (true) {
+                    Task next = task.next;
+                    task.iEnqueued = iNow;
+                    if (st != null) st.enqueued(task.iAction);
+                    task.next = null;
+                    if (bHeld && merge(task)) {
+                        // queued run took data
+                    } else if (iCapacity == 0 || isControl(task) || queued() < iCapacity || overflow(task)) {
+                        append(task);
                     }
+                    if (task == last) break;
+                    task = next;
                 }
+                bSchedule = !bScheduled && !bHeld;
+                if (bSchedule) bScheduled = true;
             }
-            return bActionFired;
+            if (bSchedule) schedule();
         }
-    }
 
-    // CLASS for thread handler
-    public class HThread implements Handler.Callback {
-        private Handler mHandler;
-        private Handler mUiHandler;
+        private void append(Task task) {
+            int iPriority = task.iPriority;
+            if (arrTail[iPriority] == null) { arrHead[iPriority] = task; } else { arrTail[iPriority].next = task; }
+            arrTail[iPriority] = task;
+            arrDepth[iPriority]++;
+        }
 
-        HThread() {
-            HandlerThread ht = new HandlerThread("BGThread_" + Integer.toString(++iThreadCount));
-            ht.start();
-            mHandler = new Handler(ht.getLooper(), this);
-            mUiHandler = new Handler(Looper.getMainLooper(), this);
+        // METHOD stops draining, queue is compacted to one run per action, later posts merge into it, pipe drains and repeats are kept
+        synchronized void hold() {
+            if (bHeld) return;
+            bHeld = true;
+            Task arrTasks[] = arrHead.clone();
+            for (int i = 0; i < PRIORITIES; i++) {
+                arrHead[i] = arrTail[i] = null;
+                arrDepth[i] = 0;
+            }
+            for (Task task : arrTasks) {
+                while (task != null) {
+                    Task next = task.next;
+                    task.next = null;
+                    if (!merge(task)) append(task);
+                    task = next;
+                }
+            }
         }
 
-        public void run(int iStep) {
-            run(iStep, false);
+        // METHOD drains again, compacted runs go first in their priority order
+        void release() {
+            boolean bSchedule;
+            synchronized (this) {
+                if (!bHeld) return;
+                bHeld = false;
+                bSchedule = !bScheduled && queued() > 0;
+                if (bSchedule) bScheduled = true;
+            }
+            if (bSchedule) schedule();
         }
 
-        public void run(int iStep, boolean bRunUI) {
-            if (bRunUI) {
-                runOnUI(iStep, true, 0, null);
-            } else {
-                run(iStep, true, 0, null);
+        synchronized boolean isHeld() { return bHeld; }
+        synchronized int depth(int iPriority) { return arrDepth[iPriority]; }
+        synchronized long dropped() { return iDropped; }
+        synchronized long coalesced() { return iCoalesced; }
+
+        synchronized void setLimit(int iCapacity, int iOverflow) {
+            if (iCapacity < 0) throw new IllegalArgumentException("Queue limit must be >= 0, was " + iCapacity);
+            if (iOverflow < Overflow.REJECT || iOverflow > Overflow.COALESCE) throw new IllegalArgumentException("Unknown overflow " + iOverflow);
+            this.iCapacity = iCapacity;
+            this.iOverflow = iOverflow;
+        }
+
+        private int queued() { return arrDepth[0] + arrDepth[1] + arrDepth[2]; }
+
+        // METHOD pipe drains and FIXED_DELAY repeats, dropping them would stop the pipe or the repeat
+        private boolean isControl(Task task) { return task.obj instanceof Pipe || task.obj instanceof ActionTimers.Repeat; }
+
+        // METHOD full lane, makes room for task, returns false if task was rejected or merged into a queued task
+        // called holding lane lock, bounded by capacity, only runs while lane is full
+        private boolean overflow(Task task) {
+            if (iOverflow == Overflow.COALESCE && merge(task)) return false;
+            if (iOverflow != Overflow.REJECT && dropOldest()) return true;
+            iDropped++;
+            drop(task);
+            return false;
+        }
+
+        // METHOD queued run of same action takes latest data of task, its old data is dropped, returns false if none is queued
+        private boolean merge(Task task) {
+            if (isControl(task)) return false;
+            Task same = find(task.iAction);
+            if (same == null) return false;
+            Object old = same.obj;
+            same.bSuccess = task.bSuccess;
+            same.iExtra = task.iExtra;
+            same.obj = task.obj;
+            task.obj = old;
+            iCoalesced++;
+            drop(task);
+            return true;
+        }
+
+        // METHOD finds queued task of action in any class, not a control task
+        private Task find(int iAction) {
+            for (int i = PRIORITIES - 1; i >= 0; i--) {
+                for (Task task = arrHead[i]; task != null; task = task.next) {
+                    if (task.iAction == iAction && !isControl(task)) return task;
+                }
             }
+            return null;
         }
 
-        public void run(int iStep, boolean bSuccess, int iExtra, Object obj) {
-            if (bRunning) {
-                Message msg = Message.obtain();
-                msg.what = iStep;
-                msg.arg1 = iExtra;
-                msg.arg2 = bSuccess ? 1 : 0;
-                msg.obj = obj;
-                mHandler.sendMessage(msg);
+        // METHOD drops first task of lowest priority class, bulk work is shed before user facing work
+        private boolean dropOldest() {
+            for (int i = PRIORITIES - 1; i >= 0; i--) {
+                Task prev = null;
+                for (Task task = arrHead[i]; task != null; prev = task, task = task.next) {
+                    if (isControl(task)) continue;
+                    if (prev == null) arrHead[i] = task.next; else prev.next = task.next;
+                    if (task == arrTail[i]) arrTail[i] = prev;
+                    arrDepth[i]--;
+                    iDropped++;
+                    drop(task);
+                    return true;
+                }
             }
+            return false;
         }
 
-        public void runOnUI(int iStep, boolean bSuccess, int iExtra, Object obj) {
-            if (bRunning) {
-                Message msg = Message.obtain();
-                msg.what = iStep;
-                msg.arg1 = iExtra;
-                msg.arg2 = bSuccess ? 1 : 0;
-                msg.obj = obj;
-                mUiHandler.sendMessage(msg);
+        private void schedule() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {       // executor shut down, drop queued actions
+                loge("Executor rejected lane, " + e.getMessage());
+                synchronized (this) { bScheduled = false; }
+                clear();
             }
         }
 
-        public void runRepeat(boolean bRunOnUI, int iStep, boolean bSuccess, int iExtra, long iDelay) {
-            if (bRunning) {
-                int flags = 0;
-                flags = setFlag(flags, FLAG_REPEAT, true);
-                flags = setFlag(flags, FLAG_SUCCESS, bSuccess);
-                flags = setFlag(flags, FLAG_RUNonUI, bRunOnUI);
-                flags = addExtraInt(flags, iExtra);
-
-                Message msg = Message.obtain();
-                msg.what = iStep;
-                msg.arg1 = (int) iDelay;                               // As arg1 is integer
-                msg.arg2 = flags;
-                if (bRunOnUI) {
-                    mUiHandler.sendMessage(msg);
-                } else {
-                    mHandler.sendMessage(msg);
+        // METHOD takes next task to run, called holding lane lock, returns null if lane is empty
+        private Task next() {
+            int iPick = -1;
+            for (int i = 0; i < PRIORITIES; i++) {
+                if (arrHead[i] == null) continue;
+                if (iPick == -1) {
+                    iPick = i;
+                } else if (arrSkipped[i] >= MAX_SKIP) {     // waited long enough, lower class goes first once
+                    iPick = i;
+                    break;
                 }
             }
+            if (iPick == -1) return null;
+            for (int i = iPick + 1; i < PRIORITIES; i++) {
+                if (arrHead[i] != null) arrSkipped[i]++;
+            }
+            arrSkipped[iPick] = 0;
+            Task task = arrHead[iPick];
+            arrHead[iPick] = task.next;
+            if (arrHead[iPick] == null) arrTail[iPick] = null;
+            arrDepth[iPick]--;
+            return task;
         }
 
-        // METHOD MESSAGE HANDLER
-        @Override
-        public boolean handleMessage(Message msg) {
-            if (getFlag(msg.arg2, FLAG_REPEAT)) {         // If its a repeat message, data is packed differently,
-                Message msg2 = Message.obtain();
-                msg2.what = msg.what;
-                msg2.arg1 = msg.arg1;
-                msg2.arg2 = msg.arg2;
+        // METHOD removes queued tasks of an action
+        synchronized void remove(int iAction) {
+            for (int i = 0; i < PRIORITIES; i++) {
+                Task prev = null;
+                for (Task task = arrHead[i]; task != null; ) {
+                    Task next = task.next;
+                    if (task.iAction == iAction) {
+                        if (prev == null) arrHead[i] = next; else prev.next = next;
+                        if (task == arrTail[i]) arrTail[i] = prev;
+                        arrDepth[i]--;
+                        drop(task);
+                    } else {
+                        prev = task;
+                    }
+                    task = next;
+                }
+            }
+        }
 
-                if (getFlag(msg.arg2, FLAG_RUNonUI)) {
-                    mUiHandler.removeMessages(msg.what);   // Clear any pending messages
-                    mUiHandler.sendMessageDelayed(msg2, (long) msg.arg1);
-                } else {
-                    mHandler.removeMessages(msg.what);      // Clear any pending messages
-                    mHandler.sendMessageDelayed(msg2, (long) msg.arg1);
+        // METHOD drops queued tasks, a drain already scheduled finds the lane empty and stops
+        void clear() {
+            Task arrTasks[] = new Task[PRIORITIES];
+            synchronized (this) {
+                for (int i = 0; i < PRIORITIES; i++) {
+                    arrTasks[i] = arrHead[i];
+                    arrHead[i] = arrTail[i] = null;
+                    arrDepth[i] = 0;
+                    arrSkipped[i] = 0;
                 }
-                if(code != null){
-                    if(code instanceof Code)
-                        ((Code)code).onAction(msg.what, getFlag(msg.arg2, FLAG_SUCCESS), getExtraInt(msg.arg2), msg.obj);
-                    else
-                        ((Run)code).onAction();
+            }
+            for (Task task : arrTasks) {
+                while (task != null) {
+                    Task next = task.next;
+                    drop(task);
+                    task = next;
                 }
-            } else {
-                if(code != null){
-                    if(code instanceof Code)
-                        ((Code)code).onAction(msg.what, msg.arg2 == 1, msg.arg1, msg.obj);
-                    else
-                        ((Run)code).onAction();
+            }
+        }
+
+        private void drop(Task task) {
+            FlowStats st = stats;
+            if (st != null && task.iEnqueued != 0) st.dropped(task.iAction);
+            releaseData(task.obj);
+            task.recycle();
+        }
+
+        @Override public void run() {
+            boolean bDone = false;
+            try {
+                for (int i = 0; i < MAX_BATCH; i++) {
+                    Task task;
+                    synchronized (this) {
+                        task = bHeld ? null : next();           // held lane stops, release() schedules it again
+                        if (task == null) {
+                            bScheduled = false;
+                            bDone = true;
+                            return;
+                        }
+                    }
+                    FlowStats st = stats;
+                    long iStart = st != null ? System.nanoTime() : 0;
+                    boolean bFailed = true;
+                    try {
+                        if (task.obj instanceof Pipe) {
+                            ((Pipe) task.obj).deliver();
+                        } else if (task.obj instanceof ActionTimers.Repeat) {
+                            hThread.executeRepeat(task.iAction, task.bSuccess, task.iExtra, (ActionTimers.Repeat) task.obj);
+                        } else {
+                            hThread.execute(task.iAction, task.bSuccess, task.iExtra, task.obj);
+                        }
+                        bFailed = false;
+                    } finally {
+                        if (st != null) {
+                            st.executed(task.iAction, task.iEnqueued != 0 ? iStart - task.iEnqueued : -1, System.nanoTime() - iStart, bFailed);
+                        }
+                        task.recycle();
+                    }
                 }
+            } finally {
+                if (!bDone) schedule();                     // batch used up or code threw, let the rest run later
             }
-            return true;
         }
+    }
 
-        public void stop() {
-            mHandler.removeCallbacksAndMessages(null);
-            mUiHandler.removeCallbacksAndMessages(null);
-            mHandler.getLooper().quit();
+    // CLASS int keyed table of per action handlers, ids are sorted for binary search, no boxing and no hashing
+    // copied on write, so lanes and event threads read it without a lock, handlers are set far less often than actions run
+    private static final class HandlerTable {
+        static final int ANY = 0;                                   // Handler runs on lane action was sent to
+        static final int UI = 1;
+        static final int BACKGROUND = 2;
+        static final HandlerTable EMPTY = new HandlerTable(new int[0], new Code[0], new byte[0]);
+        private final int arrIds[];                                 // Action ids, ascending
+        private final Code arrHandlers[];
+        private final byte arrThreads[];                            // ANY, UI or BACKGROUND, by position of id
+
+        private HandlerTable(int arrIds[], Code arrHandlers[], byte arrThreads[]) {
+            this.arrIds = arrIds;
+            this.arrHandlers = arrHandlers;
+            this.arrThreads = arrThreads;
+        }
+
+        Code get(int iAction) {
+            int i = Arrays.binarySearch(arrIds, iAction);
+            return i >= 0 ? arrHandlers[i] : null;
+        }
+
+        // METHOD true if action runs on ui lane, bUi is where it was sent, handler thread overrides it
+        boolean onUi(boolean bUi, int iAction) {
+            if (arrIds.length == 0) return bUi;
+            int i = Arrays.binarySearch(arrIds, iAction);
+            if (i < 0 || arrThreads[i] == ANY) return bUi;
+            return arrThreads[i] == UI;
+        }
+
+        HandlerTable with(int iAction, Code handler, int iThread) {
+            int i = Arrays.binarySearch(arrIds, iAction);
+            if (i >= 0) {
+                Code arrH[] = arrHandlers.clone();
+                byte arrT[] = arrThreads.clone();
+                arrH[i] = handler;
+                arrT[i] = (byte) iThread;
+                return new HandlerTable(arrIds, arrH, arrT);
+            }
+            i = -i - 1;
+            int iSize = arrIds.length;
+            int arrI[] = new int[iSize + 1];
+            Code arrH[] = new Code[iSize + 1];
+            byte arrT[] = new byte[iSize + 1];
+            System.arraycopy(arrIds, 0, arrI, 0, i);
+            System.arraycopy(arrHandlers, 0, arrH, 0, i);
+            System.arraycopy(arrThreads, 0, arrT, 0, i);
+            arrI[i] = iAction;
+            arrH[i] = handler;
+            arrT[i] = (byte) iThread;
+            System.arraycopy(arrIds, i, arrI, i + 1, iSize - i);
+            System.arraycopy(arrHandlers, i, arrH, i + 1, iSize - i);
+            System.arraycopy(arrThreads, i, arrT, i + 1, iSize - i);
+            return new HandlerTable(arrI, arrH, arrT);
+        }
+
+        HandlerTable without(int iAction) {
+            int i = Arrays.binarySearch(arrIds, iAction);
+            if (i < 0) return this;
+            int iSize = arrIds.length - 1;
+            if (iSize == 0) return EMPTY;
+            int arrI[] = new int[iSize];
+            Code arrH[] = new Code[iSize];
+            byte arrT[] = new byte[iSize];
+            System.arraycopy(arrIds, 0, arrI, 0, i);
+            System.arraycopy(arrHandlers, 0, arrH, 0, i);
+            System.arraycopy(arrThreads, 0, arrT, 0, i);
+            System.arraycopy(arrIds, i + 1, arrI, i, iSize - i);
+            System.arraycopy(arrHandlers, i + 1, arrH, i, iSize - i);
+            System.arraycopy(arrThreads, i + 1, arrT, i, iSize - i);
+            return new HandlerTable(arrI, arrH, arrT);
         }
     }
 
-    // METHODS for packing data for repeat event
-    private static int addExtraInt(int iValue, int iData) {
-        return iValue | (iData << 8);
+    // CLASS pooled record of a queued action
+    private static final class Task {
+        private int iAction;
+        private int iPriority;
+        private boolean bSuccess;
+        private int iExtra;
+        private Object obj;
+        private long iEnqueued;                                     // System.nanoTime() when queued, 0 if stats were off
+        private Task next;
+        private static Task sPool;
+        private static int sPoolSize = 0;
+        private static final int MAX_POOL_SIZE = 50;
+        private static final Object sPoolSync = new Object();
+
+        private Task() {}
+
+        static Task obtain(int iAction, int iPriority, boolean bSuccess, int iExtra, Object obj) {
+            Task task = null;
+            synchronized (sPoolSync) {
+                if (sPool != null) {
+                    task = sPool;
+                    sPool = task.next;
+                    sPoolSize--;
+                }
+            }
+            if (task == null) task = new Task();
+            task.next = null;
+            task.iAction = iAction;
+            task.iPriority = iPriority;
+            task.bSuccess = bSuccess;
+            task.iExtra = iExtra;
+            task.obj = obj;
+            return task;
+        }
+
+        void recycle() {
+            obj = null;
+            synchronized (sPoolSync) {
+                if (sPoolSize < MAX_POOL_SIZE) {
+                    next = sPool;
+                    sPool = this;
+                    sPoolSize++;
+                }
+            }
+        }
+    }
+
+    // METHOD returns pooled data to its pool, when action is done with it or dropped before running
+    private static void releaseData(Object obj) {
+        if (obj instanceof TouchSample) ((TouchSample) obj).recycle();
+        else if (obj instanceof EventMatcher.Result) ((EventMatcher.Result) obj).recycle();
+        else if (obj instanceof Pipe) ((Pipe) obj).clear();                // drain task dropped, so are items waiting in pipe
     }
 
-    private static int getExtraInt(int iValue) {
-        return (iValue >> 8);
+    // CLASS copy of a MotionEvent for TOUCH ui events, framework recycles MotionEvent once onTouch returns,
+    // so values are copied to a pooled sample, sample is recycled after Code.onAction returns, copy values to keep them
+    public static final class TouchSample {
+        public int iAction;                                         // Masked action, MotionEvent.ACTION_DOWN, ACTION_MOVE ...
+        public int iPointerId;                                      // Pointer id of pointer that caused the action
+        public float x, y;                                          // Position relative to view
+        public float rawX, rawY;                                    // Position on screen
+        public long iEventTime;                                     // MotionEvent.getEventTime(), uptime millis
+        public float fPressure;
+        private boolean bInPool = false;
+        private TouchSample next;
+        private static TouchSample sPool;
+        private static int sPoolSize = 0;
+        private static final int MAX_POOL_SIZE = 32;
+        private static final Object sPoolSync = new Object();
+
+        private TouchSample() {}
+
+        public static TouchSample obtain(MotionEvent event) {
+            TouchSample sample = null;
+            synchronized (sPoolSync) {
+                if (sPool != null) {
+                    sample = sPool;
+                    sPool = sample.next;
+                    sample.next = null;
+                    sample.bInPool = false;
+                    sPoolSize--;
+                }
+            }
+            if (sample == null) sample = new TouchSample();
+            int iIndex = event.getActionIndex();
+            sample.iAction = event.getActionMasked();
+            sample.iPointerId = event.getPointerId(iIndex);
+            sample.x = event.getX(iIndex);
+            sample.y = event.getY(iIndex);
+            sample.rawX = event.getRawX();
+            sample.rawY = event.getRawY();
+            sample.iEventTime = event.getEventTime();
+            sample.fPressure = event.getPressure(iIndex);
+            return sample;
+        }
+
+        public void recycle() {
+            synchronized (sPoolSync) {
+                if (!bInPool && sPoolSize < MAX_POOL_SIZE) {       // ignore second recycle of same sample
+                    bInPool = true;
+                    next = sPool;
+                    sPool = this;
+                    sPoolSize++;
+                }
+            }
+        }
     }
 
-    private static boolean getFlag(int iValue, int iFlag) {
-        return (iValue & iFlag) == iFlag;
+    // METHOD returns looper of the timer thread shared by all Flows, started on first use
+    private static synchronized Looper timerLooper() {
+        if (sTimerLooper == null) {
+            HandlerThread ht = new HandlerThread("FlowTimer");
+            ht.start();
+            sTimerLooper = ht.getLooper();
+        }
+        return sTimerLooper;
     }
 
-    private static int setFlag(int iValue, int iFlag, boolean bSet) {
-        if (bSet) {
-            return iValue | iFlag;
-        } else {
-            return iValue & (~iFlag);
+    // CLASS real time scheduler of all Flows, uptime millis, one timer wheel driven by the shared timer thread
+    // the looper holds one wake up message for the next tick with work, whatever the number of timers
+    private static final class LooperScheduler implements TimerScheduler, Runnable {
+        private static LooperScheduler sShared;
+        private final TimerWheel wheel = new TimerWheel(SystemClock.uptimeMillis());
+        private final Handler handler = new Handler(timerLooper());
+        private long iWakeAt = Long.MAX_VALUE;                      // Uptime the timer thread is set to wake at, guarded by lockWake
+        private final Object lockWake = new Object();
+
+        static synchronized LooperScheduler shared() {
+            if (sShared == null) sShared = new LooperScheduler();
+            return sShared;
+        }
+
+        @Override public long now() { return SystemClock.uptimeMillis(); }
+
+        // METHOD timer thread is only woken again if timer is due before its wake up time
+        @Override public void schedule(TimerWheel.Timer timer, long iDeadline) {
+            wheel.schedule(timer, iDeadline);
+            if (Looper.myLooper() != handler.getLooper()) rearm();  // on timer thread, run() rearms once advance is done
+        }
+
+        @Override public boolean cancel(TimerWheel.Timer timer) { return wheel.cancel(timer); }
+
+        // METHOD sets timer thread to wake at next tick with work
+        private void rearm() {
+            long iNext = wheel.nextTick();                          // read outside lockWake, wheel lock is never taken inside it
+            synchronized (lockWake) {
+                if (iNext >= iWakeAt) return;
+                iWakeAt = iNext;
+                handler.removeCallbacks(this);
+                handler.postAtTime(this, iNext);
+            }
+        }
+
+        @Override public void run() {
+            synchronized (lockWake) { iWakeAt = Long.MAX_VALUE; }
+            wheel.advance(SystemClock.uptimeMillis());
+            rearm();
         }
     }
 
     // VIEW LISTENERS set event listeners for View objects
     private void registerListener(final boolean bRunOnUI, final int iAction, final View view, int iListener) {
-        switch (iListener) {
-            // Triggered when ui layout changes with width/height values > 0
-            case UiEvent.LAYOUT_CHANGE:
-                view.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
-                    @Override
-                    public void onLayoutChange(View view, int i, int i1, int i2, int i3, int i4, int i5, int i6, int i7) {
-                        if((i+i1+i2+i3) > 0) {
-                            if (bRunOnUI) {
-                                hThread.runOnUI(iAction, true, 0, view);
-                            } else {
-                                hThread.run(iAction, true, 0, view);
-                            } } }});
-                break;
-
-            // triggered listener when view is clicked
-            case UiEvent.ON_CLICK:
-                if(view instanceof EditText){                                                         // NOTE: for editText  first tap get focus, 2nd to trigger onClick, unless focusable is setfalse()
-                    view.setOnFocusChangeListener(new View.OnFocusChangeListener() {
-                        @Override
-                        public void onFocusChange(View v, boolean hasFocus) {
-                            if(hasFocus){
-                                if (bRunOnUI) {
-                                    hThread.runOnUI(iAction, true, 0, view);
-                                } else {
-                                    hThread.run(iAction, true, 0, view);
-                                }
-                            }}});
-                }
-                view.setOnClickListener(new View.OnClickListener() {
-                    @Override
-                    public void onClick(View view) {
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, true, 0, view);
-                        } else {
-                            hThread.run(iAction, true, 0, view);
-                        }
-                    }
-                });
-                break;
+        registerListener(bRunOnUI, iAction, view, iListener, Rate.ALL, 0);
+    }
 
+    private void registerListener(final boolean bRunOnUI, final int iAction, final View view, int iListener, int iRate, long iPeriod) {
+        checkRate(iRate, iPeriod);
+        final UiSender sender = new UiSender(iAction, bRunOnUI, view, iListener, iRate, iPeriod);
+        listUiSenders.add(sender);
+        switch (iListener) {
             case UiEvent.KEYBOARD_STATE_CHANGE: // Method reports keyboard state change, should be provided with root activity view (activity.window.decorView)
-                KeyboardState list  = new KeyboardState() {
-                    @Override public void onStateChange(boolean bVisible) {
+                KeyboardState list  = new KeyboardState() {                 // iExtra is keyboard height in px, 0 when hidden
+                    @Override public void onStateChange(boolean bVisible, int iHeight) {
                         if(view.hasFocus()){
-                            if (bRunOnUI) {
-                                hThread.runOnUI(iAction, bVisible, 0, view);
-                            } else {
-                                hThread.run(iAction, bVisible, 0, view);
-                            }}}};
+                            sender.send(bVisible, iHeight, view);
+                        }}};
                 setUpKeybListener(list, view);
-                break;
+                return;
 
             // Triggered when Text entered in text field, i.e when text field loses focus, enter button is pressed on keyboard
             // for text entered to work with keyboard hide, set android:windowSoftInputMode="adjustResize" or "adjustPan"
             // and setup KEYBOARD_STATE UiEvent, provided with main activity root decor view
             case UiEvent.TEXT_ENTERED:
                 KeyboardState listKb =  new KeyboardState() {
-                    @Override public void onStateChange(boolean bVisible) {
+                    @Override public void onStateChange(boolean bVisible, int iHeight) {
                         if(view.hasFocus() && !bVisible){
-                            if (bRunOnUI) {hThread.runOnUI(iAction, bVisible, 0, view);
-                            } else {hThread.run(iAction, bVisible, 0, view); }}}};
+                            sender.send(bVisible, 0, view); }}};
                 listKBListeners.put(view, listKb);
                 addKeybListener(listKb );
-
-                view.setOnFocusChangeListener(new View.OnFocusChangeListener() {
-                    @Override
-                    public void onFocusChange(View v, boolean hasFocus) {
-                        if (!hasFocus) {
-                            logw(4, "Text ENTERED on Lost focus");
-                            if (bRunOnUI) {
-                                hThread.runOnUI(iAction, true, 0, view);
-                            } else {
-                                hThread.run(iAction, true, 1, view);
-                            }}
-                    }});
-
-                ((EditText) view).setOnEditorActionListener(new TextView.OnEditorActionListener() {
-                    @Override
-                    public boolean onEditorAction(TextView v, int actionId, KeyEvent event) {
-                        if (actionId == EditorInfo.IME_ACTION_DONE) {
-                            logw(4, "Text ENTERED on KB Done");
-                            if (bRunOnUI) {
-                                hThread.runOnUI(iAction, true, 0, view);
-                            } else {
-                                hThread.run(iAction, true, 3, view);
-                            }
-                        }
-                        return false;
-                    }});
-                break;
-
-            // Triggered when text changes
-            case UiEvent.TEXT_CHANGED:
-                TextWatcher txtListen =  new TextWatcher() {
-                    @Override public void afterTextChanged(Editable s) {}
-                    @Override public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
-                    @Override public void onTextChanged(CharSequence s, int start, int before, int count) {
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, true, 0, view);
-                        } else {
-                            hThread.run(iAction, true, 0, view);
-                        }}
-                };
-                listTextListeners.put(view, txtListen);
-                ((EditText) view).addTextChangedListener(txtListen);
-                break;
-
-            case UiEvent.LIST_ITEM_SELECT:
-                ((ListView) view).setOnItemClickListener(new AdapterView.OnItemClickListener() {
-                    @Override
-                    public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, true, position, view);
-                        } else {
-                            hThread.run(iAction, true, position, view);
-                        }
-                    }
-                });
-                break;
-
-            case UiEvent.SPINNER_ITEM_SELECT:
-                ((Spinner) view).setOnItemSelectedListener(
-                        new AdapterView.OnItemSelectedListener() {
-                            @Override
-                            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                                if (bRunOnUI) {
-                                    hThread.runOnUI(iAction, true, position, view);
-                                } else {
-                                    hThread.run(iAction, true, position, view);
-                                }
-                            }
-                            @Override
-                            public void onNothingSelected(AdapterView<?> parent) {
-                                if (bRunOnUI) {
-                                    hThread.runOnUI(iAction, false, -1, view);
-                                } else {
-                                    hThread.run(iAction, false, -1, view);
-                                }
-                            }
-                        });
                 break;
-
-            case UiEvent.CHECKBOX_STATE:
-                ((CheckBox) view).setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
-                    @Override
-                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, isChecked, 0, view);
-                        } else {
-                            hThread.run(iAction, isChecked, 0, view);
-                        }
-                    }
-                });
-                break;
-
-            case UiEvent.TOUCH:           // Listener returns true for Touch down and Move, false when finger is lifted up
-                view.setOnTouchListener(new View.OnTouchListener() {
-                    @Override
-                    public boolean onTouch(View v, MotionEvent event) {
-                        if (bRunOnUI) {
-                            hThread.runOnUI(iAction, event.getAction() != MotionEvent.ACTION_UP, event.getAction(), event);
-                        } else {
-                            hThread.run(iAction, event.getAction() != MotionEvent.ACTION_UP, event.getAction(), event);
-                        }
-                        return true;
-                    }
-                });
         }
+        ViewDispatcher.of(view).add(sender, sender.kinds());     // shared per view, other Flows and actions on it keep their callbacks
     }
 
     // VIEW LISTENERS set event listeners for View objects
     private void unRegisterListener( final View view, int iListener) {
+        for (UiSender sender : listUiSenders) {
+            if (sender.view == view && sender.iListener == iListener) {
+                sender.reset();
+                listUiSenders.remove(sender);
+                ViewDispatcher.remove(view, sender);
+            }
+        }
         switch (iListener) {
-            case UiEvent.ON_CLICK:
-                if(view instanceof EditText){ view.setOnFocusChangeListener(null); }
-                view.setOnClickListener(null);
-                break;
-
-            case UiEvent.TEXT_ENTERED:
-                listKBListeners.remove(view);
-                view.setOnFocusChangeListener(null);
-                ((EditText) view).setOnEditorActionListener(null);
-                break;
-
+            case UiEvent.TEXT_ENTERED: keyList.remove(listKBListeners.remove(view));            break;
             case UiEvent.KEYBOARD_STATE_CHANGE: removeKeybListener();                           break;
-            case UiEvent.TEXT_CHANGED: listTextListeners.remove(view);                          break;
-            case UiEvent.LIST_ITEM_SELECT: ((ListView) view).setOnItemClickListener(null);      break;
-            case UiEvent.SPINNER_ITEM_SELECT:((Spinner) view).setOnItemSelectedListener(null);  break;
-            case UiEvent.CHECKBOX_STATE:((CheckBox) view).setOnCheckedChangeListener(null);     break;
-            case UiEvent.TOUCH:view.setOnTouchListener(null);                                   break;
-            case UiEvent.LAYOUT_CHANGE:view.removeOnLayoutChangeListener(null);                 break;
         }
     }
 
-    // METHOD - sets/removes global keyboard listener, also sets resets SoftInputMode
-    private void removeKeybListener() {
-        viewActRoot.getViewTreeObserver().removeOnGlobalLayoutListener(keybListener);
-        Activity act = (Activity) ((ViewGroup) viewActRoot).getChildAt(0).getContext();
-        Window window = act.getWindow();
-        iSoftInputMode = window.getAttributes().softInputMode;     // save it so we can restore, when keyboard listener is removed
-        if(iSoftInputMode != -1)
-            window.setSoftInputMode(iSoftInputMode);
+    // METHOD - removes all ui event senders of this Flow from their views
+    private void removeUiListeners() {
+        for (UiSender sender : listUiSenders) {
+            sender.reset();
+            ViewDispatcher.remove(sender.view, sender);
+        }
+        listUiSenders.clear();
+    }
 
+    // METHOD - detaches this Flow from keyboard monitor of its root, last Flow to leave restores SoftInputMode
+    private void removeKeybListener() {
+        if (viewActRoot == null) return;
+        keyList.remove(listKBListeners.remove(viewActRoot));
+        KeyboardMonitor.remove(viewActRoot, keybListener);
+        viewActRoot = null;
     }
 
-    // METHOD - sets up a listener for keyboard state change, also change SoftInputMode if its not correct
+    // METHOD - joins shared keyboard monitor of root view, monitor sets SoftInputMode to adjustPan if window does not pan or resize
     private void setUpKeybListener(final KeyboardState keyListener, final View view) {
-        Activity act = (Activity) ((ViewGroup) view).getChildAt(0).getContext();  // Change soft input mode to SOFT_INPUT_ADJUST_PAN or SOFT_INPUT_ADJUST_RESIZE, for it to work
-        Window window = act.getWindow();
-        iSoftInputMode = window.getAttributes().softInputMode;     // save it so we can restore, when keyboard listener is removed
-        if(iSoftInputMode != WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN && iSoftInputMode != WindowManager.LayoutParams.SOFT_INPUT_ADJUST_RESIZE )
-            window.setSoftInputMode(WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN);
-
-        rLast = new Rect();         // set a new rect for storing screen state
-        viewActRoot = view;
+        if (viewActRoot != null && viewActRoot != view) removeKeybListener();
+        keyList.remove(listKBListeners.put(view, keyListener));    // registered again, old listener is replaced
         keyList.add(keyListener);
-        view.getViewTreeObserver().addOnGlobalLayoutListener(keybListener);
+        viewActRoot = view;
+        KeyboardMonitor.of(view).add(keybListener);
     }
 
     private void addKeybListener(final KeyboardState keyListener){
         keyList.add(keyListener);
     }
 
-    private ViewTreeObserver.OnGlobalLayoutListener keybListener =  new ViewTreeObserver.OnGlobalLayoutListener() {
-        @Override public void onGlobalLayout() {
-            Rect rCur = new Rect();
-            viewActRoot.getWindowVisibleDisplayFrame(rCur);
-
-            if(rLast.bottom == 0){ rLast.bottom = viewActRoot.getHeight();} // just get size of window, something to start with
-
-            if((rLast.bottom - rCur.bottom) > 200){ // means keyboard is visible
-                if(!bKeybVisible){                // if its not already set set it
-                    bKeybVisible = true;
-                    rLast = rCur;
-                    for(int i=0; i < keyList.size(); i++)
-                        keyList.get(i).onStateChange(true);
-                }
-            } else if( (rCur.bottom - rLast.bottom) > 200){
-                if(bKeybVisible){
-                    bKeybVisible = false;
-                    rLast = rCur;
-                    for(int i=0; i < keyList.size(); i++)
-                        keyList.get(i).onStateChange(false);
-                }
-            }
+    // keyboard change of the window, fanned out to keyboard and text entered listeners of this Flow
+    private final KeyboardMonitor.Listener keybListener = new KeyboardMonitor.Listener() {
+        @Override public void onKeyboardChange(boolean bVisible, int iHeight) {
+            for(int i=0; i < keyList.size(); i++)
+                keyList.get(i).onStateChange(bVisible, iHeight);
         }
     };
+
     // METHOD for logging
     public void log(String sLog) {
         log(1, sLog);
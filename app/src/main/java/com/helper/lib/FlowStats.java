@@ -0,0 +1,187 @@
+package com.helper.lib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Version 1.0
+// Per action latency and throughput stats of a Flow lane, queue wait is time from post to start, exec is time in onAction
+// Times are counted in log2 nanosecond histograms, recording does not allocate once an action id has been seen
+// Example: flow.setStats(true)                           starts recording, disabled Flows only read a null field per action
+//        : for (FlowStats.ActionStats s : flow.stats().snapshot()) log(s.toString())
+//        : flow.stats().reset()
+public final class FlowStats {
+    private static final int BUCKETS = 40;                          // Bucket n counts times < 2^n ns, last one also holds longer times
+    private volatile Record arrRecords[] = new Record[16];          // Open addressing table by action id, copied on write
+    private int iSize = 0;                                          // Records in table, guarded by this
+    private volatile long iStart = System.nanoTime();
+
+    // CLASS counters of one action, updated holding its own lock, lanes of a Flow only contend for the same action
+    private static final class Record {
+        private final int iAction;
+        private long iEnqueued, iExecuted, iFailed, iDropped;
+        private long iWaitTotal, iWaitMax, iExecTotal, iExecMax;
+        private final long arrWait[] = new long[BUCKETS];
+        private final long arrExec[] = new long[BUCKETS];
+
+        Record(int iAction) { this.iAction = iAction; }
+
+        synchronized void clear() {
+            iEnqueued = iExecuted = iFailed = iDropped = 0;
+            iWaitTotal = iWaitMax = iExecTotal = iExecMax = 0;
+            for (int i = 0; i < BUCKETS; i++) { arrWait[i] = arrExec[i] = 0; }
+        }
+    }
+
+    // METHOD called when an action is queued
+    void enqueued(int iAction) {
+        Record record = record(iAction);
+        synchronized (record) { record.iEnqueued++; }
+    }
+
+    // METHOD called when a queued action is dropped by cancel, pause or stop
+    void dropped(int iAction) {
+        Record record = record(iAction);
+        synchronized (record) { record.iDropped++; }
+    }
+
+    // METHOD called once action code returns or throws, times in nanos, iWait < 0 if it was queued before stats were on
+    void executed(int iAction, long iWait, long iExec, boolean bFailed) {
+        Record record = record(iAction);
+        synchronized (record) {
+            record.iExecuted++;
+            if (bFailed) record.iFailed++;
+            if (iWait >= 0) {
+                record.iWaitTotal += iWait;
+                if (iWait > record.iWaitMax) record.iWaitMax = iWait;
+                record.arrWait[bucket(iWait)]++;
+            }
+            record.iExecTotal += iExec;
+            if (iExec > record.iExecMax) record.iExecMax = iExec;
+            record.arrExec[bucket(iExec)]++;
+        }
+    }
+
+    private static int bucket(long iNanos) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(iNanos));
+    }
+
+    // METHOD finds record of action, adds it on first use, the only step that allocates
+    private Record record(int iAction) {
+        Record arr[] = arrRecords;
+        int iMask = arr.length - 1;
+        for (int i = hash(iAction) & iMask; ; i = (i + 1) & iMask) {
+            Record record = arr[i];
+            if (record == null) break;
+            if (record.iAction == iAction) return record;
+        }
+        return add(iAction);
+    }
+
+    private synchronized Record add(int iAction) {
+        Record arr[] = arrRecords;
+        int iMask = arr.length - 1;
+        for (int i = hash(iAction) & iMask; ; i = (i + 1) & iMask) {       // added by another thread since lookup
+            if (arr[i] == null) break;
+            if (arr[i].iAction == iAction) return arr[i];
+        }
+        Record record = new Record(iAction);
+        Record arrNew[] = new Record[(iSize + 1) * 2 > arr.length ? arr.length * 2 : arr.length];
+        for (Record old : arr) {
+            if (old != null) insert(arrNew, old);
+        }
+        insert(arrNew, record);
+        iSize++;
+        arrRecords = arrNew;                                        // readers see old or new table, both complete
+        return record;
+    }
+
+    private static void insert(Record arr[], Record record) {
+        int iMask = arr.length - 1;
+        int i = hash(record.iAction) & iMask;
+        while (arr[i] != null) { i = (i + 1) & iMask; }
+        arr[i] = record;
+    }
+
+    private static int hash(int iAction) {
+        int h = iAction * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // METHOD returns stats of every action seen since stats were enabled or reset
+    public List<ActionStats> snapshot() {
+        long iSince = System.nanoTime() - iStart;
+        List<ActionStats> list = new ArrayList<>();
+        for (Record record : arrRecords) {
+            if (record != null) {
+                synchronized (record) { list.add(new ActionStats(record, iSince)); }
+            }
+        }
+        return list;
+    }
+
+    // METHOD clears counters, action records are kept so recording stays allocation free
+    public void reset() {
+        for (Record record : arrRecords) {
+            if (record != null) record.clear();
+        }
+        iStart = System.nanoTime();
+    }
+
+    // CLASS stats of one action at snapshot time, times in nanos
+    public static final class ActionStats {
+        public final int iAction;
+        public final long iEnqueued;                                // Times action was queued
+        public final long iExecuted;                                // Times action code ran
+        public final long iFailed;                                  // Runs where code threw
+        public final long iDropped;                                 // Queued runs removed before running
+        public final long iWaitTotal, iWaitMax;
+        public final long iExecTotal, iExecMax;
+        public final long iPeriod;                                  // Time stats cover, for throughput
+        private final long arrWait[], arrExec[];
+
+        private ActionStats(Record record, long iPeriod) {
+            iAction = record.iAction;
+            iEnqueued = record.iEnqueued;
+            iExecuted = record.iExecuted;
+            iFailed = record.iFailed;
+            iDropped = record.iDropped;
+            iWaitTotal = record.iWaitTotal;
+            iWaitMax = record.iWaitMax;
+            iExecTotal = record.iExecTotal;
+            iExecMax = record.iExecMax;
+            arrWait = record.arrWait.clone();
+            arrExec = record.arrExec.clone();
+            this.iPeriod = iPeriod;
+        }
+
+        // METHOD queued and not yet run or dropped, approximate while actions are in flight
+        public long backlog() { return Math.max(0, iEnqueued - iExecuted - iDropped); }
+        public double throughput() { return iPeriod > 0 ? iExecuted * 1e9 / iPeriod : 0; }   // runs per second
+        public long waitAvg() { return iExecuted > 0 ? iWaitTotal / iExecuted : 0; }
+        public long execAvg() { return iExecuted > 0 ? iExecTotal / iExecuted : 0; }
+
+        // METHODS percentile 0..1, returns upper bound of histogram bucket capped at max, so within a factor of 2
+        public long waitPercentile(double dPercent) { return Math.min(iWaitMax, percentile(arrWait, dPercent)); }
+        public long execPercentile(double dPercent) { return Math.min(iExecMax, percentile(arrExec, dPercent)); }
+
+        private static long percentile(long arr[], double dPercent) {
+            long iTotal = 0;
+            for (long iCount : arr) { iTotal += iCount; }
+            if (iTotal == 0) return 0;
+            long iRank = (long) Math.ceil(dPercent * iTotal);
+            long iSeen = 0;
+            for (int i = 0; i < arr.length; i++) {
+                iSeen += arr[i];
+                if (iSeen >= iRank) return 1L << i;
+            }
+            return 1L << (arr.length - 1);
+        }
+
+        @Override public String toString() {
+            return "ACTION: " + iAction + " runs " + iExecuted + " failed " + iFailed + " dropped " + iDropped
+                    + " backlog " + backlog() + " rate " + Math.round(throughput()) + "/s"
+                    + " wait avg " + waitAvg() / 1000 + "us p99 " + waitPercentile(0.99) / 1000 + "us max " + iWaitMax / 1000 + "us"
+                    + " exec avg " + execAvg() / 1000 + "us p99 " + execPercentile(0.99) / 1000 + "us max " + iExecMax / 1000 + "us";
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.helper.lib;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.graphics.Rect;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.Window;
+import android.view.WindowManager;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+// Version 1.0
+// One keyboard monitor per window root, shared by every Flow that listens for KEYBOARD_STATE_CHANGE or TEXT_ENTERED
+// A single layout listener is set on the root, it works for adjustPan windows too, where no view changes size
+// Each layout pass reads the visible frame into one Rect and compares ints, listeners are only called on a change
+// Example: KeyboardMonitor.of(activity.getWindow().getDecorView()).add(listener)
+//        : KeyboardMonitor.remove(decorView, listener)        last listener detaches monitor and restores soft input mode
+// Used on ui thread only
+public final class KeyboardMonitor implements ViewTreeObserver.OnGlobalLayoutListener {
+    private static final int MIN_HEIGHT = 200;                      // Frame shrinks by more than this when keyboard shows, in px
+    private static final Listener NO_LISTENERS[] = new Listener[0];
+    private static final WeakHashMap<View, WeakReference<KeyboardMonitor>> sMonitors = new WeakHashMap<>();   // Root's observer keeps monitor
+    private final View root;
+    private final Rect rFrame = new Rect();                         // Reused on every layout pass
+    private Listener arrListeners[] = NO_LISTENERS;                 // Copied on add and remove, so a listener may remove itself
+    private int iFullBottom = 0;                                    // Frame bottom without keyboard, largest seen for this width
+    private int iWidth = 0;                                         // Frame width, a new width (rotation) starts over
+    private boolean bVisible = false;
+    private int iHeight = 0;                                        // Keyboard height in px, 0 when hidden
+    private Window window;
+    private int iSoftInputMode = -1;                                // Mode before monitor changed it, restored on detach
+
+    // INTERFACE keyboard state of the window changed
+    public interface Listener { void onKeyboardChange(boolean bVisible, int iHeight); }
+
+    private KeyboardMonitor(View root) { this.root = root; }
+
+    // METHOD returns monitor of root view, created on first use
+    public static KeyboardMonitor of(View root) {
+        KeyboardMonitor monitor = find(root);
+        if (monitor == null) {
+            monitor = new KeyboardMonitor(root);
+            sMonitors.put(root, new WeakReference<>(monitor));
+        }
+        return monitor;
+    }
+
+    // METHOD removes listener from monitor of root, if monitor exists
+    public static void remove(View root, Listener listener) {
+        KeyboardMonitor monitor = find(root);
+        if (monitor != null) monitor.remove(listener);
+    }
+
+    private static KeyboardMonitor find(View root) {
+        WeakReference<KeyboardMonitor> ref = sMonitors.get(root);
+        return ref != null ? ref.get() : null;
+    }
+
+    public boolean isVisible() { return bVisible; }
+    public int keyboardHeight() { return iHeight; }
+
+    // METHOD adds listener, first one attaches monitor, a listener added twice is called once
+    public void add(Listener listener) {
+        for (Listener l : arrListeners) {
+            if (l == listener) return;
+        }
+        Listener arr[] = new Listener[arrListeners.length + 1];
+        System.arraycopy(arrListeners, 0, arr, 0, arrListeners.length);
+        arr[arrListeners.length] = listener;
+        arrListeners = arr;
+        if (arr.length == 1) attach();
+    }
+
+    // METHOD removes listener, last one detaches monitor
+    public void remove(Listener listener) {
+        int iPos = -1;
+        for (int i = 0; i < arrListeners.length; i++) {
+            if (arrListeners[i] == listener) iPos = i;
+        }
+        if (iPos == -1) return;
+        if (arrListeners.length == 1) {
+            arrListeners = NO_LISTENERS;
+            detach();
+            return;
+        }
+        Listener arr[] = new Listener[arrListeners.length - 1];
+        System.arraycopy(arrListeners, 0, arr, 0, iPos);
+        System.arraycopy(arrListeners, iPos + 1, arr, iPos, arr.length - iPos);
+        arrListeners = arr;
+    }
+
+    // METHOD sets layout listener, soft input mode is changed to adjustPan if window neither pans nor resizes
+    private void attach() {
+        window = findWindow(root);
+        if (window != null) {
+            int iMode = window.getAttributes().softInputMode;
+            int iAdjust = iMode & WindowManager.LayoutParams.SOFT_INPUT_MASK_ADJUST;
+            if (iAdjust != WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN && iAdjust != WindowManager.LayoutParams.SOFT_INPUT_ADJUST_RESIZE) {
+                iSoftInputMode = iMode;
+                window.setSoftInputMode((iMode & ~WindowManager.LayoutParams.SOFT_INPUT_MASK_ADJUST) | WindowManager.LayoutParams.SOFT_INPUT_ADJUST_PAN);
+            }
+        }
+        iFullBottom = iWidth = iHeight = 0;
+        bVisible = false;
+        root.getViewTreeObserver().addOnGlobalLayoutListener(this);
+    }
+
+    private void detach() {
+        ViewTreeObserver observer = root.getViewTreeObserver();
+        if (observer.isAlive()) observer.removeOnGlobalLayoutListener(this);
+        if (window != null && iSoftInputMode != -1) window.setSoftInputMode(iSoftInputMode);
+        iSoftInputMode = -1;
+        window = null;
+        sMonitors.remove(root);
+    }
+
+    // METHOD window of root view, decor view context may not be the activity, so its first child is tried too
+    private static Window findWindow(View root) {
+        Activity act = findActivity(root.getContext());
+        if (act == null && root instanceof ViewGroup && ((ViewGroup) root).getChildCount() > 0) {
+            act = findActivity(((ViewGroup) root).getChildAt(0).getContext());
+        }
+        return act != null ? act.getWindow() : null;
+    }
+
+    private static Activity findActivity(Context context) {
+        while (context instanceof ContextWrapper) {
+            if (context instanceof Activity) return (Activity) context;
+            context = ((ContextWrapper) context).getBaseContext();
+        }
+        return null;
+    }
+
+    // METHOD layout pass, no allocation, listeners are only called when keyboard shows or hides
+    @Override public void onGlobalLayout() {
+        root.getWindowVisibleDisplayFrame(rFrame);
+        int iFrameWidth = rFrame.right - rFrame.left;
+        if (iFrameWidth != iWidth) {                                // first pass or rotation, take frame as full size
+            iWidth = iFrameWidth;
+            iFullBottom = Math.max(rFrame.bottom, root.getHeight());
+        } else if (rFrame.bottom > iFullBottom) {
+            iFullBottom = rFrame.bottom;
+        }
+        int iShrink = iFullBottom - rFrame.bottom;
+        boolean bShown = iShrink > MIN_HEIGHT;
+        int iNewHeight = bShown ? iShrink : 0;
+        if (bShown == bVisible && iNewHeight == iHeight) return;
+        boolean bChanged = bShown != bVisible;
+        bVisible = bShown;
+        iHeight = iNewHeight;
+        if (!bChanged) return;                                      // keyboard height change only, e.g. suggestion bar
+        Listener arr[] = arrListeners;
+        for (int i = 0; i < arr.length; i++) { arr[i].onKeyboardChange(bShown, iNewHeight); }
+    }
+}
@@ -0,0 +1,157 @@
+package com.helper.lib;
+
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+// Version 1.0
+// One listener object per view, shared by every Flow and action registered on it, so a second registration no longer
+// replaces the first and registering allocates no listener objects, framework listener of a kind is set on first use
+// Receivers are kept in two parallel arrays, receiver and bitmask of kinds it takes, a callback only visits receivers
+// Example: ViewDispatcher.of(button).add(receiver, 1 << ViewDispatcher.CLICK)
+//        : ViewDispatcher.remove(button, receiver)            last receiver of a kind removes that framework listener
+// Used on ui thread only
+public final class ViewDispatcher implements View.OnClickListener, View.OnFocusChangeListener, View.OnTouchListener,
+        View.OnLayoutChangeListener, TextWatcher, TextView.OnEditorActionListener, AdapterView.OnItemClickListener,
+        AdapterView.OnItemSelectedListener, CompoundButton.OnCheckedChangeListener {
+    // KINDS of callbacks, a receiver takes a bitmask of them
+    public static final int CLICK = 0;              // onClick
+    public static final int FOCUS = 1;              // bState has focus
+    public static final int TOUCH = 2;              // iValue MotionEvent action, obj MotionEvent, receiver returns true to consume
+    public static final int LAYOUT = 3;             // bState true if view has size
+    public static final int TEXT = 4;               // text changed
+    public static final int EDITOR = 5;             // iValue editor action id, obj KeyEvent or null
+    public static final int ITEM_CLICK = 6;         // iValue position, obj item view
+    public static final int ITEM_SELECT = 7;        // bState false and iValue -1 when nothing is selected, obj item view
+    public static final int CHECKED = 8;            // bState is checked
+    private static final int KINDS = 9;
+    private static final Receiver NO_RECEIVERS[] = new Receiver[0];
+    private static final WeakHashMap<View, WeakReference<ViewDispatcher>> sDispatchers = new WeakHashMap<>();   // View's listeners keep dispatcher
+    private final View view;
+    private Receiver arrReceivers[] = NO_RECEIVERS;                 // Copied on add and remove, so a receiver may remove itself
+    private int arrMasks[] = new int[0];                            // Kinds taken by receiver at same position
+    private final int arrCount[] = new int[KINDS];                  // Receivers per kind, framework listener is set while > 0
+
+    // INTERFACE gets callbacks of the kinds it was added with, return value is only used for TOUCH and EDITOR
+    public interface Receiver { boolean onViewEvent(int iKind, View view, boolean bState, int iValue, Object obj); }
+
+    private ViewDispatcher(View view) { this.view = view; }
+
+    // METHOD returns dispatcher of view, created on first use
+    public static ViewDispatcher of(View view) {
+        ViewDispatcher dispatcher = find(view);
+        if (dispatcher == null) {
+            dispatcher = new ViewDispatcher(view);
+            sDispatchers.put(view, new WeakReference<>(dispatcher));
+        }
+        return dispatcher;
+    }
+
+    // METHOD removes receiver from dispatcher of view, if it exists
+    public static void remove(View view, Receiver receiver) {
+        ViewDispatcher dispatcher = find(view);
+        if (dispatcher != null) dispatcher.remove(receiver);
+    }
+
+    private static ViewDispatcher find(View view) {
+        WeakReference<ViewDispatcher> ref = sDispatchers.get(view);
+        return ref != null ? ref.get() : null;
+    }
+
+    // METHOD adds receiver for kinds in iMask, a receiver added again gets the new mask
+    public void add(Receiver receiver, int iMask) {
+        remove(receiver);
+        int iSize = arrReceivers.length;
+        Receiver arr[] = new Receiver[iSize + 1];
+        int arrM[] = new int[iSize + 1];
+        System.arraycopy(arrReceivers, 0, arr, 0, iSize);
+        System.arraycopy(arrMasks, 0, arrM, 0, iSize);
+        arr[iSize] = receiver;
+        arrM[iSize] = iMask;
+        arrReceivers = arr;
+        arrMasks = arrM;
+        for (int iKind = 0; iKind < KINDS; iKind++) {
+            if ((iMask & (1 << iKind)) != 0 && arrCount[iKind]++ == 0) install(iKind, true);
+        }
+    }
+
+    // METHOD removes receiver, framework listeners no receiver needs any more are removed from view
+    public void remove(Receiver receiver) {
+        int iPos = -1;
+        for (int i = 0; i < arrReceivers.length; i++) {
+            if (arrReceivers[i] == receiver) iPos = i;
+        }
+        if (iPos == -1) return;
+        int iMask = arrMasks[iPos];
+        int iSize = arrReceivers.length - 1;
+        Receiver arr[] = iSize == 0 ? NO_RECEIVERS : new Receiver[iSize];
+        int arrM[] = new int[iSize];
+        System.arraycopy(arrReceivers, 0, arr, 0, iPos);
+        System.arraycopy(arrReceivers, iPos + 1, arr, iPos, iSize - iPos);
+        System.arraycopy(arrMasks, 0, arrM, 0, iPos);
+        System.arraycopy(arrMasks, iPos + 1, arrM, iPos, iSize - iPos);
+        arrReceivers = arr;
+        arrMasks = arrM;
+        for (int iKind = 0; iKind < KINDS; iKind++) {
+            if ((iMask & (1 << iKind)) != 0 && --arrCount[iKind] == 0) install(iKind, false);
+        }
+        if (iSize == 0) sDispatchers.remove(view);
+    }
+
+    public int size() { return arrReceivers.length; }
+
+    // METHOD sets or clears framework listener of a kind, view must be of the widget type the kind needs
+    private void install(int iKind, boolean bOn) {
+        switch (iKind) {
+            case CLICK: view.setOnClickListener(bOn ? this : null); break;
+            case FOCUS: view.setOnFocusChangeListener(bOn ? this : null); break;
+            case TOUCH: view.setOnTouchListener(bOn ? this : null); break;
+            case LAYOUT:
+                if (bOn) view.addOnLayoutChangeListener(this); else view.removeOnLayoutChangeListener(this);
+                break;
+            case TEXT:
+                if (bOn) ((TextView) view).addTextChangedListener(this); else ((TextView) view).removeTextChangedListener(this);
+                break;
+            case EDITOR: ((TextView) view).setOnEditorActionListener(bOn ? this : null); break;
+            case ITEM_CLICK: ((AdapterView<?>) view).setOnItemClickListener(bOn ? this : null); break;
+            case ITEM_SELECT: ((AdapterView<?>) view).setOnItemSelectedListener(bOn ? this : null); break;
+            case CHECKED: ((CompoundButton) view).setOnCheckedChangeListener(bOn ? this : null); break;
+        }
+    }
+
+    // METHOD calls receivers of a kind, returns true if any of them did
+    private boolean dispatch(int iKind, View view, boolean bState, int iValue, Object obj) {
+        Receiver arr[] = arrReceivers;
+        int arrM[] = arrMasks;
+        int iBit = 1 << iKind;
+        boolean bResult = false;
+        for (int i = 0; i < arr.length; i++) {
+            if ((arrM[i] & iBit) != 0 && arr[i].onViewEvent(iKind, view, bState, iValue, obj)) bResult = true;
+        }
+        return bResult;
+    }
+
+    // METHODS framework callbacks, each passes the view listened to
+    @Override public void onClick(View view) { dispatch(CLICK, view, true, 0, null); }
+    @Override public void onFocusChange(View view, boolean bFocus) { dispatch(FOCUS, view, bFocus, 0, null); }
+    @Override public boolean onTouch(View view, MotionEvent event) { return dispatch(TOUCH, view, true, event.getAction(), event); }
+    @Override public void onLayoutChange(View view, int l, int t, int r, int b, int oldL, int oldT, int oldR, int oldB) {
+        dispatch(LAYOUT, view, (l + t + r + b) > 0, 0, null);
+    }
+    @Override public void beforeTextChanged(CharSequence s, int iStart, int iCount, int iAfter) {}
+    @Override public void afterTextChanged(Editable s) {}
+    @Override public void onTextChanged(CharSequence s, int iStart, int iBefore, int iCount) { dispatch(TEXT, view, true, 0, s); }
+    @Override public boolean onEditorAction(TextView view, int iActionId, KeyEvent event) { return dispatch(EDITOR, view, true, iActionId, event); }
+    @Override public void onItemClick(AdapterView<?> parent, View view, int iPosition, long id) { dispatch(ITEM_CLICK, parent, true, iPosition, view); }
+    @Override public void onItemSelected(AdapterView<?> parent, View view, int iPosition, long id) { dispatch(ITEM_SELECT, parent, true, iPosition, view); }
+    @Override public void onNothingSelected(AdapterView<?> parent) { dispatch(ITEM_SELECT, parent, false, -1, null); }
+    @Override public void onCheckedChanged(CompoundButton view, boolean bChecked) { dispatch(CHECKED, view, bChecked, 0, null); }
+}
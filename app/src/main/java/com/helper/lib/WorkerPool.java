@@ -0,0 +1,71 @@
+package com.helper.lib;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Version 1.0
+// Process wide bounded worker pool, default backend for Flow background actions
+// Flows only share the threads, every Flow still runs its own actions one at a time and in order
+// Shared pool has 2 to 4 threads by cpu count, an action that blocks, network or disk wait, a BLOCK pipe waiting for
+// its consumer, holds one of them, a few such actions stall background actions of every Flow in the app
+// Give blocking work a Flow with its own executor, or size the shared pool with setSharedThreads()
+// Example: new Flow(code)                                   runs on the shared pool
+//        : new Flow(code, WorkerPool.create("Sync_", 1))    runs on its own executor, any Executor can be used
+//        : WorkerPool.setShared(executor)                   changes backend for Flows created after the call
+//        : WorkerPool.setSharedThreads(8)                   shared pool runs up to 8 actions of different Flows at once
+public final class WorkerPool {
+    private static final int MAX_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final long KEEP_ALIVE_SECS = 30;             // Idle threads are released, so an idle app holds no workers
+    private static Executor sShared;
+    private static ThreadPoolExecutor sPool;                    // Shared pool made here, null if shared() was never called
+    private static int sThreads = MAX_THREADS;
+
+    private WorkerPool() {}
+
+    // METHOD returns process wide executor, created on first use
+    public static synchronized Executor shared() {
+        if (sShared == null) {
+            sPool = create("FlowWorker_", sThreads);
+            sShared = sPool;
+        }
+        return sShared;
+    }
+
+    // METHOD replaces process wide executor, existing Flows keep the executor they were created with
+    public static synchronized void setShared(Executor executor) {
+        sShared = executor;
+    }
+
+    // METHOD sets threads of shared pool, a shared pool already running is resized, an executor given to setShared() is not changed
+    public static synchronized void setSharedThreads(int iThreads) {
+        if (iThreads < 1) throw new IllegalArgumentException("Shared pool needs at least 1 thread, was " + iThreads);
+        sThreads = iThreads;
+        if (sPool == null) return;
+        if (iThreads > sPool.getMaximumPoolSize()) {            // core may never be above max
+            sPool.setMaximumPoolSize(iThreads);
+            sPool.setCorePoolSize(iThreads);
+        } else {
+            sPool.setCorePoolSize(iThreads);
+            sPool.setMaximumPoolSize(iThreads);
+        }
+    }
+
+    // METHOD creates a bounded pool of daemon threads, threads are started on demand and stopped when idle
+    public static ThreadPoolExecutor create(final String sName, int iThreads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(iThreads, iThreads, KEEP_ALIVE_SECS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger iCount = new AtomicInteger();
+                    @Override public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, sName + iCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
@@ -0,0 +1,143 @@
+package com.helper.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Benchmarks of the Flow event matching core at 10/100/1000 registered actions
+// Action n waits for events "a<n>" and "b<n>", all actions also wait for "all", sequence actions wait for "s<n>_0..2"
+// pattern actions match "(s<n>_0 or s<n>_1) then 2*s<n>_2 without b<n>", so they share keys with sequence actions
+// Sink takes the snapshot Flow hands to action code and recycles it, so numbers are matching cost without Flow lanes or threads
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventMatcherBenchmark {
+    @Param({"10", "100", "1000"})
+    public int iActions;
+
+    private int iFired;
+    private EventMatcher matcher;
+    private EventMatcher.EventKey arrA[], arrB[], arrSeq[][];
+    private EventMatcher.EventKey keyAll;
+    private String arrNames[];
+    private EventMatcher.Batch batch;
+    private int iNext;
+    private boolean bSuccess;
+
+    private final EventMatcher.Sink sink = new EventMatcher.Sink() {
+        @Override public void onFire(EventMatcher.Action action, boolean bSuccess) {
+            action.snapshot().recycle();
+            iFired++;
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        matcher = new EventMatcher(sink);
+        keyAll = matcher.eventKey("all");
+        arrA = new EventMatcher.EventKey[iActions];
+        arrB = new EventMatcher.EventKey[iActions];
+        arrSeq = new EventMatcher.EventKey[iActions][];
+        arrNames = new String[iActions];
+        for (int i = 0; i < iActions; i++) {
+            arrNames[i] = "a" + i;
+            arrA[i] = matcher.eventKey(arrNames[i]);
+            arrB[i] = matcher.eventKey("b" + i);
+            matcher.register(new EventMatcher.Action(i, new EventMatcher.EventKey[]{arrA[i], arrB[i], keyAll}, false, false));
+            arrSeq[i] = matcher.eventKeys("s" + i + "_0", "s" + i + "_1", "s" + i + "_2");
+            matcher.register(new EventMatcher.Action(iActions + i, arrSeq[i], true, false));
+            EventPattern pattern = EventPattern.compile("(s" + i + "_0 or s" + i + "_1) then 2*s" + i + "_2 without b" + i);
+            matcher.register(new EventMatcher.Action(2 * iActions + i, pattern, matcher.eventKeys(pattern.symbols()), false));
+        }
+        for (int i = 0; i < iActions; i++) {                            // every action complete, so each event flips its state
+            matcher.event(arrA[i], true, 0, null);
+            matcher.event(arrB[i], true, 0, null);
+        }
+        matcher.event(keyAll, true, 0, null);
+        batch = matcher.beginBatch();
+    }
+
+    private int next() {
+        if (++iNext == iActions) {
+            iNext = 0;
+            bSuccess = !bSuccess;
+        }
+        return iNext;
+    }
+
+    // one action per event, fired with a key
+    @Benchmark
+    public int eventKey() {
+        matcher.event(arrA[next()], bSuccess, 0, null);
+        return iFired;
+    }
+
+    // one action per event, event name looked up
+    @Benchmark
+    public int eventName() {
+        matcher.event(arrNames[next()], bSuccess, 0, null);
+        return iFired;
+    }
+
+    // event every action waits for, cost grows with number of actions
+    @Benchmark
+    public int eventAll() {
+        bSuccess = !bSuccess;
+        matcher.event(keyAll, bSuccess, 0, null);
+        return iFired;
+    }
+
+    // three events of a sequence action, in order, fires on last
+    @Benchmark
+    public int sequence() {
+        EventMatcher.EventKey keys[] = arrSeq[next()];
+        matcher.event(keys[0], true, 0, null);
+        matcher.event(keys[1], true, 0, null);
+        matcher.event(keys[2], bSuccess, 0, null);
+        return iFired;
+    }
+
+    // pattern steps, one table lookup per event for each pattern action waiting on the key
+    @Benchmark
+    public int pattern() {
+        EventMatcher.EventKey keys[] = arrSeq[next()];
+        matcher.event(keys[1], true, 0, null);
+        matcher.event(keys[2], true, 0, null);
+        matcher.event(keys[2], true, 0, null);
+        return iFired;
+    }
+
+    // fire once action registered, completed and removed, index is copied on register and on removal
+    @Benchmark
+    public int fireOnce() {
+        int i = next();
+        matcher.register(new EventMatcher.Action(-1, new EventMatcher.EventKey[]{arrA[i], arrB[i]}, false, true));
+        matcher.event(arrA[i], true, 0, null);
+        matcher.event(arrB[i], true, 0, null);
+        return iFired;
+    }
+
+    // action replaced by a new one with same id, as when a screen registers its actions again
+    @Benchmark
+    public int registerChurn() {
+        int i = next();
+        matcher.register(new EventMatcher.Action(i, new EventMatcher.EventKey[]{arrA[i], arrB[i], keyAll}, false, false));
+        return iFired;
+    }
+
+    // ten events applied in one batch, each affected action checked once
+    @Benchmark
+    public int batch() {
+        for (int j = 0; j < 10; j++) { batch.event(arrA[next()], bSuccess, 0, null); }
+        batch.commit();
+        return iFired;
+    }
+}
@@ -0,0 +1,80 @@
+package com.helper.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Benchmarks of Flow delayed and repeat actions on a virtual clock, so numbers are scheduler cost only
+// iPending timers are kept scheduled, as when many requests each have a timeout
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerBenchmark {
+    private static final int REPLAY = 100000;
+
+    @Param({"10", "1000", "100000"})
+    public int iPending;
+
+    private VirtualScheduler clock;
+    private ActionTimers timers;
+    private int iNext;
+    private long iFired;
+
+    private final ActionTimers.Target target = new ActionTimers.Target() {
+        @Override public void onTimer(boolean bRunOnUI, int iAction, boolean bSuccess, int iExtra, Object obj) { iFired++; }
+        @Override public void onDrop(Object obj) {}
+    };
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        clock = new VirtualScheduler(0);
+        timers = new ActionTimers(clock, target);
+        for (int i = 0; i < iPending; i++) {
+            timers.runDelayed(false, i, true, 0, null, 1000 + (i * 7919L) % 60000);
+        }
+    }
+
+    private int next() {
+        if (++iNext == iPending) iNext = 0;
+        return iNext;
+    }
+
+    // pending timeout of an action moved, as runDelayed() of an action already waiting
+    @Benchmark
+    public long reschedule() {
+        int i = next();
+        timers.runDelayed(false, i, true, 0, null, 1000 + (i * 7919L) % 60000);
+        return iFired;
+    }
+
+    // timeout cancelled, as when the request answers, and set again for the next one
+    @Benchmark
+    public long cancelAndSchedule() {
+        int i = next();
+        timers.cancelDelayed(i);
+        timers.runDelayed(false, i, true, 0, null, 1000 + (i * 7919L) % 60000);
+        return iFired;
+    }
+
+    // REPLAY runs of 100 repeats with different periods, clock moved in one call
+    @Benchmark
+    @OperationsPerInvocation(REPLAY)
+    public long replayRepeats() {
+        for (int i = 0; i < 100; i++) {
+            timers.runRepeat(false, -1 - i, true, 0, 10 + i, ActionTimers.FIXED_RATE, ActionTimers.SKIP);
+        }
+        long iStart = iFired;
+        while (iFired - iStart < REPLAY) { clock.advanceBy(100); }
+        for (int i = 0; i < 100; i++) { timers.cancelRepeat(-1 - i); }
+        return iFired;
+    }
+}
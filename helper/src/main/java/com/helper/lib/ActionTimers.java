@@ -0,0 +1,204 @@
+package com.helper.lib;
+
+import java.util.HashMap;
+
+// Version 1.0
+// Delayed and repeat actions of a Flow, timed by a TimerScheduler, due actions are handed to a Target
+// A new delayed run or repeat of an action replaces the pending one, schedule and cancel are O(1)
+public final class ActionTimers {
+    // REPEAT modes, runs are timed from absolute deadlines, so time taken by handler or code does not add drift
+    public static final int FIXED_RATE = 0;     // runs at start + n * period
+    public static final int FIXED_DELAY = 1;    // next run is period after last run finished
+    // MISSED tick policy for FIXED_RATE, when runs fall behind by more than a period
+    public static final int SKIP = 0;           // missed ticks are dropped, next run stays on the period grid
+    public static final int CATCH_UP = 1;       // missed ticks run one after another until back on time
+    public static final int COALESCE = 2;       // one run for all missed ticks, data is Integer count of ticks it stands for
+
+    private final TimerScheduler scheduler;
+    private final Target target;
+    private final HashMap<Integer, Repeat> mapRepeats = new HashMap<>();         // Running repeats by action
+    private final HashMap<Integer, Delayed> mapDelayed = new HashMap<>();        // Pending background delayed actions by action
+    private final HashMap<Integer, Delayed> mapDelayedUi = new HashMap<>();      // Pending ui delayed actions by action
+
+    // INTERFACE receives due actions, on the thread driving the scheduler, so it should only queue them
+    public interface Target {
+        // METHOD obj is a Repeat for FIXED_DELAY repeats, call repeatDone() once its code has run
+        void onTimer(boolean bRunOnUI, int iAction, boolean bSuccess, int iExtra, Object obj);
+        // METHOD data of a delayed action cancelled or replaced before it was due
+        void onDrop(Object obj);
+    }
+
+    public ActionTimers(TimerScheduler scheduler, Target target) {
+        this.scheduler = scheduler;
+        this.target = target;
+    }
+
+    public TimerScheduler scheduler() { return scheduler; }
+
+    // METHOD runs action after delay, a pending delayed run of same action on same thread is replaced
+    public void runDelayed(boolean bRunOnUI, int iAction, boolean bSuccess, int iExtra, Object obj, long iDelay) {
+        Delayed task = new Delayed(iAction, bRunOnUI, bSuccess, iExtra, obj);
+        HashMap<Integer, Delayed> map = bRunOnUI ? mapDelayedUi : mapDelayed;
+        Delayed old;
+        synchronized (map) {
+            old = map.put(iAction, task);
+        }
+        if (old != null && scheduler.cancel(old)) target.onDrop(old.obj);
+        scheduler.schedule(task, scheduler.now() + Math.max(0, iDelay));
+    }
+
+    // METHOD cancels pending delayed runs of action
+    public void cancelDelayed(int iAction) {
+        Delayed task, taskUi;
+        synchronized (mapDelayed) { task = mapDelayed.remove(iAction); }
+        synchronized (mapDelayedUi) { taskUi = mapDelayedUi.remove(iAction); }
+        if (task != null && scheduler.cancel(task)) target.onDrop(task.obj);
+        if (taskUi != null && scheduler.cancel(taskUi)) target.onDrop(taskUi.obj);
+    }
+
+    // METHOD delayed timer expired, runs only if task is still the pending run of its action
+    // a task cancelled or replaced between runDelayed() putting it in the map and scheduling it is dropped here
+    private void onDelayed(Delayed task) {
+        HashMap<Integer, Delayed> map = task.bRunOnUI ? mapDelayedUi : mapDelayed;
+        boolean bPending;
+        synchronized (map) {
+            bPending = map.get(task.iAction) == task;
+            if (bPending) map.remove(task.iAction);
+        }
+        if (bPending) {
+            target.onTimer(task.bRunOnUI, task.iAction, task.bSuccess, task.iExtra, task.obj);
+        } else {
+            target.onDrop(task.obj);
+        }
+    }
+
+    // METHOD starts a repeat, first run is now, a running repeat of same action is replaced
+    public void runRepeat(boolean bRunOnUI, int iAction, boolean bSuccess, int iExtra, long iPeriod, int iMode, int iMissed) {
+        checkRepeat(iPeriod, iMode, iMissed);
+        Repeat repeat = new Repeat(iAction, bRunOnUI, bSuccess, iExtra, iPeriod, iMode, iMissed);
+        repeat.iNext = scheduler.now();
+        synchronized (mapRepeats) {
+            Repeat old = mapRepeats.put(iAction, repeat);
+            if (old != null) cancel(old);
+        }
+        scheduler.schedule(repeat, repeat.iNext);
+    }
+
+    // METHOD throws IllegalArgumentException for a period <= 0, or a mode or missed tick policy that is not one of the constants
+    public static void checkRepeat(long iPeriod, int iMode, int iMissed) {
+        if (iPeriod <= 0) throw new IllegalArgumentException("Repeat period must be > 0, was " + iPeriod);
+        if (iMode != FIXED_RATE && iMode != FIXED_DELAY) throw new IllegalArgumentException("Unknown repeat mode " + iMode);
+        if (iMissed < SKIP || iMissed > COALESCE) throw new IllegalArgumentException("Unknown missed tick policy " + iMissed);
+    }
+
+    // METHOD stops repeat of action, a run already queued or running will not schedule again
+    public void cancelRepeat(int iAction) {
+        synchronized (mapRepeats) {
+            Repeat repeat = mapRepeats.remove(iAction);
+            if (repeat != null) cancel(repeat);
+        }
+    }
+
+    private void cancel(Repeat repeat) {
+        repeat.bCancelled = true;
+        scheduler.cancel(repeat);
+    }
+
+    // METHOD repeat deadline reached, next deadline is set from the last deadline not from now, so there is no drift
+    private void onRepeat(Repeat repeat) {
+        if (repeat.bCancelled) return;
+        if (repeat.iMode == FIXED_DELAY) {                      // next deadline is set once code has run
+            target.onTimer(repeat.bRunOnUI, repeat.iAction, repeat.bSuccess, repeat.iExtra, repeat);
+            return;
+        }
+
+        long iLate = scheduler.now() - repeat.iNext;
+        long iMissed = iLate >= repeat.iPeriod ? iLate / repeat.iPeriod : 0;     // whole periods passed since deadline
+        Object data = null;
+        switch (repeat.iMissed) {
+            case CATCH_UP:
+                repeat.iNext += repeat.iPeriod;                 // deadline may already be passed, runs again straight away
+                break;
+            case COALESCE:
+                data = Integer.valueOf((int) Math.min(Integer.MAX_VALUE, iMissed + 1));
+                repeat.iNext += (iMissed + 1) * repeat.iPeriod;     // next deadline same as SKIP
+                break;
+            default:                                            // SKIP
+                repeat.iNext += (iMissed + 1) * repeat.iPeriod;
+                break;
+        }
+        scheduler.schedule(repeat, repeat.iNext);
+        target.onTimer(repeat.bRunOnUI, repeat.iAction, repeat.bSuccess, repeat.iExtra, data);
+    }
+
+    // METHOD called once code of a FIXED_DELAY repeat has run, sets its next deadline
+    public void repeatDone(Repeat repeat) {
+        repeat.iNext = scheduler.now() + repeat.iPeriod;
+        if (!repeat.bCancelled) scheduler.schedule(repeat, repeat.iNext);
+    }
+
+    // METHOD cancels all delayed and repeat actions
+    public void clear() {
+        synchronized (mapRepeats) {
+            for (Repeat repeat : mapRepeats.values()) { cancel(repeat); }
+            mapRepeats.clear();
+        }
+        clearDelayed(mapDelayed);
+        clearDelayed(mapDelayedUi);
+    }
+
+    private void clearDelayed(HashMap<Integer, Delayed> map) {
+        synchronized (map) {
+            for (Delayed task : map.values()) {
+                if (scheduler.cancel(task)) target.onDrop(task.obj);
+            }
+            map.clear();
+        }
+    }
+
+    // CLASS pending delayed action, not pooled so a late cancel can never hit a reused timer
+    private final class Delayed extends TimerWheel.Timer {
+        private final int iAction;
+        private final boolean bRunOnUI;
+        private final boolean bSuccess;
+        private final int iExtra;
+        private final Object obj;
+
+        Delayed(int iAction, boolean bRunOnUI, boolean bSuccess, int iExtra, Object obj) {
+            this.iAction = iAction;
+            this.bRunOnUI = bRunOnUI;
+            this.bSuccess = bSuccess;
+            this.iExtra = iExtra;
+            this.obj = obj;
+        }
+
+        @Override protected void onExpire() { onDelayed(this); }
+    }
+
+    // CLASS state of a repeating action, deadline is absolute time of scheduler clock, period is 64 bit
+    public final class Repeat extends TimerWheel.Timer {
+        private final int iAction;
+        private final boolean bRunOnUI;
+        private final boolean bSuccess;
+        private final int iExtra;
+        private final long iPeriod;
+        private final int iMode;                                    // FIXED_RATE or FIXED_DELAY
+        private final int iMissed;                                  // SKIP, CATCH_UP or COALESCE
+        private long iNext;                                         // Next deadline
+        private volatile boolean bCancelled = false;
+
+        private Repeat(int iAction, boolean bRunOnUI, boolean bSuccess, int iExtra, long iPeriod, int iMode, int iMissed) {
+            this.iAction = iAction;
+            this.bRunOnUI = bRunOnUI;
+            this.bSuccess = bSuccess;
+            this.iExtra = iExtra;
+            this.iPeriod = iPeriod;
+            this.iMode = iMode;
+            this.iMissed = iMissed;
+        }
+
+        public boolean isCancelled() { return bCancelled; }
+
+        @Override protected void onExpire() { onRepeat(this); }
+    }
+}
@@ -0,0 +1,840 @@
+package com.helper.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Version 1.0
+// Event matching core of Flow, plain Java so it runs and is benchmarked on any JVM
+// Actions wait for a set of events, when all have fired the action is handed to a Sink, Flow's sink queues it on its lanes
+// Events are fired from any thread without a global lock, registration is copy on write
+// An event only reaches actions waiting for it, so other events in between do not break a sequence action,
+// before the index every event reached every action and any event out of order reset the last step of a sequence
+// Example: EventMatcher matcher = new EventMatcher(sink)
+//        : matcher.register(new EventMatcher.Action(1, matcher.eventKeys("name", "email"), false, false))
+//        : matcher.event("name", true, 0, null); matcher.event(matcher.eventKey("email"), true, 0, null)
+//        : matcher.register(new EventMatcher.Action(2, pattern, matcher.eventKeys(pattern.symbols()), false))   pattern from EventPattern.compile()
+//        : new EventMatcher(sink, EventPool.DEFAULT_SIZE, scheduler), action.window(5000).timeout(30000) before register()
+//        : window, events older than 5s do not count, timeout, action fires with false if it has not fired for 30s
+//        : action.runType(EventMatcher.EVENT_UPDATE) action fires on each of its events, not only when its result changes
+public class EventMatcher {
+    public static final int WAITING = 0;
+    public static final int SUCCESS = 1;
+    public static final int FAILURE = 2;
+    // RUN TYPES when an action fires, one int check per event, so a mode costs no more than the default
+    public static final int RESULT_CHANGE = 0;      // all events fired and result of the set changed, default
+    public static final int RESULT_UPDATE = 1;      // all events fired, then on every event of the action, same result or not
+    public static final int EVENT_UPDATE = 2;       // every event of the action, bSuccess is false until all fired and succeeded
+    private final Sink sink;
+    private final TimerScheduler scheduler;                                     // Clock of windows and timeouts, null if not used
+    private final EventPool pool;                                               // Events of this matcher's actions, not shared with other Flows
+    private final ResultPool resultPool = new ResultPool();                     // Snapshots handed to fired action code
+    private List<Action> listActions = new ArrayList<>();                      // List of registered actions
+    private final Object lockRegister = new Object();                           // Guards registration only, events are fired without it
+    private final ConcurrentHashMap<String, EventKey> mapKeys = new ConcurrentHashMap<>();  // Registered event names -> event keys
+    private volatile Slot arrKeySlots[][] = new Slot[8][];                      // Index event key -> action slots, copied on write
+    private int iNextKey = 0;                                                   // Id of next event key, never reused, so an old key can not alias a new one
+    private volatile int iFirstKey = 0;                                         // First key id made since last clear(), lower ids are stale
+
+    // INTERFACE receives fired actions, called holding the action lock, so it should only queue the action
+    // with action.snapshot() as data, events of the action keep changing once the lock is released
+    public interface Sink { void onFire(Action action, boolean bSuccess); }
+
+    public EventMatcher(Sink sink) { this(sink, EventPool.DEFAULT_SIZE); }
+    public EventMatcher(Sink sink, int iPoolSize) { this(sink, iPoolSize, null); }
+    public EventMatcher(Sink sink, int iPoolSize, TimerScheduler scheduler) {
+        this.sink = sink;
+        this.scheduler = scheduler;
+        pool = new EventPool(iPoolSize);
+    }
+
+    public EventPool eventPool() { return pool; }
+    public TimerScheduler scheduler() { return scheduler; }
+
+    // METHOD adds action, an action already registered with same id is replaced
+    public void register(Action action) {
+        for (EventKey key : action.keys) { checkKey(key); }
+        if (scheduler == null && (action.iWindow > 0 || action.iTimeout > 0)) {
+            throw new IllegalStateException("ACTION: " + action.iAction + " window and timeout need a matcher with a TimerScheduler");
+        }
+        action.obtainEvents(this);
+        synchronized (lockRegister) {
+            unRegister(action.iAction);
+            listActions.add(action);
+            indexAction(action);
+            action.armTimeout();
+        }
+    }
+
+    // METHOD returns false if no action was registered with this id
+    public boolean unRegister(int iAction) {
+        synchronized (lockRegister) {
+            for (int i = 0; i < listActions.size(); i++) {
+                if (listActions.get(i).iAction == iAction) {
+                    unIndexAction(listActions.remove(i));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // METHOD removes and recycles all actions, keys already handed out are no longer valid, pool of this matcher is emptied
+    public void clear() {
+        synchronized (lockRegister) {
+            for (int i = 0; i < listActions.size(); i++) {
+                Action action = listActions.get(i);
+                synchronized (action) {
+                    action.remove();
+                    action.recycle();
+                }
+            }
+            listActions = new ArrayList<>();
+            mapKeys.clear();
+            arrKeySlots = new Slot[arrKeySlots.length][];               // ids go on from iNextKey, so index keeps its size
+            iFirstKey = iNextKey;
+        }
+        pool.clear();
+    }
+
+    // METHODS event keys, register an event name once, then fire it with the key without String hashing or comparison
+    public EventKey eventKey(String sEvent) {
+        EventKey key = mapKeys.get(sEvent);
+        if (key != null) return key;
+        synchronized (lockRegister) {
+            key = mapKeys.get(sEvent);
+            if (key == null) {
+                key = new EventKey(this, iNextKey++, sEvent);
+                if (key.iKey >= arrKeySlots.length) {                   // grow index before key is visible to other threads
+                    Slot newIndex[][] = new Slot[Math.max(arrKeySlots.length * 2, key.iKey + 1)][];
+                    System.arraycopy(arrKeySlots, 0, newIndex, 0, arrKeySlots.length);
+                    arrKeySlots = newIndex;
+                }
+                mapKeys.put(sEvent, key);
+            }
+            return key;
+        }
+    }
+
+    public EventKey[] eventKeys(String... events) {
+        EventKey keys[] = new EventKey[events.length];
+        for (int i = 0; i < events.length; i++) { keys[i] = eventKey(events[i]); }
+        return keys;
+    }
+
+    // METHOD throws IllegalArgumentException for a key of another matcher, or one made before clear()
+    public void checkKey(EventKey key) {
+        if (key.matcher != this) throw new IllegalArgumentException("EventKey {" + key.sEvent + "} belongs to another Flow");
+        if (key.iKey < iFirstKey) throw new IllegalArgumentException("EventKey {" + key.sEvent + "} was made before clear(), get it again with eventKey()");
+    }
+
+    // METHOD adds action slots to event index, arrays are copied and replaced not changed, so event() running on
+    // other threads always sees a complete index without locking, called holding lockRegister
+    private void indexAction(Action action) {
+        Slot index[][] = arrKeySlots.clone();
+        for (int i = 0; i < action.arrKeys.length; i++) {
+            int iKey = action.arrKeys[i];
+            Slot slots[] = index[iKey];
+            int iSize = slots == null ? 0 : slots.length;
+            Slot newSlots[] = new Slot[iSize + 1];
+            if (iSize > 0) System.arraycopy(slots, 0, newSlots, 0, iSize);
+            newSlots[iSize] = new Slot(action, i);
+            index[iKey] = newSlots;
+        }
+        arrKeySlots = index;
+    }
+
+    // METHOD removes all slots of an action from event index, called holding lockRegister
+    // events go back to the pool, so a screen registering its actions again reuses them
+    private void unIndexAction(Action action) {
+        synchronized (action) {                                         // events in flight see bRemoved and skip recycled action
+            action.remove();
+            action.recycle();
+        }
+        Slot index[][] = arrKeySlots.clone();
+        for (int i = 0; i < action.arrKeys.length; i++) {
+            int iKey = action.arrKeys[i];
+            Slot slots[] = index[iKey];
+            if (slots == null) continue;                                // already removed, event used twice in same action
+            int iKeep = 0;
+            for (Slot slot : slots) { if (slot.action != action) iKeep++; }
+            if (iKeep == 0) {
+                index[iKey] = null;
+                continue;
+            }
+            Slot newSlots[] = new Slot[iKeep];
+            iKeep = 0;
+            for (Slot slot : slots) { if (slot.action != action) newSlots[iKeep++] = slot; }
+            index[iKey] = newSlots;
+        }
+        arrKeySlots = index;
+    }
+
+    // METHODS fire event, by name or with a pre registered key, safe to call from any thread
+    public void event(String sEvent, boolean bSuccess, int iExtra, Object obj) {
+        EventKey key = mapKeys.get(sEvent);                           // no key, means no action ever waited for this event
+        if (key != null) fireEvent(key.iKey, bSuccess, iExtra, obj);
+    }
+
+    public void event(EventKey key, boolean bSuccess, int iExtra, Object obj) {
+        checkKey(key);
+        fireEvent(key.iKey, bSuccess, iExtra, obj);
+    }
+
+    // METHOD fires event for all actions waiting on it, no global lock is taken
+    private void fireEvent(int iKey, boolean bSuccess, int iExtra, Object obj) {
+        Slot index[][] = arrKeySlots;                                   // single volatile read, index is never changed in place
+        if (iKey >= index.length) return;                               // index grows before a key is handed out, only a safety check
+        Slot slots[] = index[iKey];                                     // only actions waiting for this event
+        if (slots == null) return;
+        for (int i = 0; i < slots.length; i++) {
+            Action action = slots[i].action;
+            if (action.onEvent(sink, slots[i].iSlot, bSuccess, iExtra, obj)) {
+                removeFired(action);
+            }
+        }
+    }
+
+    // METHOD removes a fire once action after it has fired
+    private void removeFired(Action action) {
+        synchronized (lockRegister) {
+            if (listActions.remove(action)) unIndexAction(action);
+        }
+    }
+
+    public Batch beginBatch() { return new Batch(this); }
+
+    // CLASS batch of events, all event states are set first, then each affected action is checked once
+    // one batch should be used by one thread, it can be reused after commit()
+    public static class Batch {
+        private final EventMatcher matcher;
+        private int iCount = 0;                                         // events in batch
+        private int arrKeys[] = new int[8];
+        private boolean arrSuccess[] = new boolean[8];
+        private int arrExtras[] = new int[8];
+        private Object arrObjs[] = new Object[8];
+        private int iActions = 0;                                       // actions affected by batch
+        private Action arrActions[] = new Action[8];
+
+        protected Batch(EventMatcher matcher) { this.matcher = matcher; }
+
+        public Batch event(String... events) {
+            for (String sEvent : events) { event(sEvent, true, 0, null); }
+            return this;
+        }
+        public Batch event(String sEvent, boolean bSuccess) { return event(sEvent, bSuccess, 0, null); }
+        public Batch event(String sEvent, boolean bSuccess, int iExtra, Object obj) {
+            EventKey key = matcher.mapKeys.get(sEvent);               // no key, means no action ever waited for this event
+            if (key != null) add(key.iKey, bSuccess, iExtra, obj);
+            return this;
+        }
+        public Batch event(EventKey key) { return event(key, true, 0, null); }
+        public Batch event(EventKey key, boolean bSuccess) { return event(key, bSuccess, 0, null); }
+        public Batch event(EventKey key, boolean bSuccess, int iExtra, Object obj) {
+            matcher.checkKey(key);
+            add(key.iKey, bSuccess, iExtra, obj);
+            return this;
+        }
+
+        private void add(int iKey, boolean bSuccess, int iExtra, Object obj) {
+            if (iCount == arrKeys.length) {
+                int iSize = iCount * 2;
+                arrKeys = Arrays.copyOf(arrKeys, iSize);
+                arrSuccess = Arrays.copyOf(arrSuccess, iSize);
+                arrExtras = Arrays.copyOf(arrExtras, iSize);
+                arrObjs = Arrays.copyOf(arrObjs, iSize);
+            }
+            arrKeys[iCount] = iKey;
+            arrSuccess[iCount] = bSuccess;
+            arrExtras[iCount] = iExtra;
+            arrObjs[iCount] = obj;
+            iCount++;
+        }
+
+        private void addAction(Action action) {
+            for (int i = 0; i < iActions; i++) {
+                if (arrActions[i] == action) return;                    // already affected by an earlier event
+            }
+            if (iActions == arrActions.length) arrActions = Arrays.copyOf(arrActions, iActions * 2);
+            arrActions[iActions++] = action;
+        }
+
+        public void commit() { commit(matcher.sink); }
+
+        // METHOD applies all events, checks every affected action once, fired actions go to sink in batch order
+        public void commit(Sink sink) {
+            Slot index[][] = matcher.arrKeySlots;
+            for (int e = 0; e < iCount; e++) {
+                if (arrKeys[e] >= index.length) continue;              // index grows before a key is handed out, only a safety check
+                Slot slots[] = index[arrKeys[e]];
+                if (slots == null) continue;
+                for (Slot slot : slots) {
+                    boolean bCheck;
+                    synchronized (slot.action) {
+                        bCheck = slot.action.apply(slot.iSlot, arrSuccess[e], arrExtras[e], arrObjs[e]);
+                    }
+                    if (bCheck) addAction(slot.action);
+                }
+            }
+
+            for (int i = 0; i < iActions; i++) {
+                Action action = arrActions[i];
+                boolean bDone = false;
+                synchronized (action) {
+                    int iStatus = action.evaluate();
+                    if (iStatus != WAITING) {
+                        sink.onFire(action, iStatus == SUCCESS);
+                        bDone = action.fired();
+                    }
+                }
+                if (bDone) matcher.removeFired(action);
+            }
+            clear();
+        }
+
+        // METHOD drops events not committed yet
+        public void clear() {
+            Arrays.fill(arrObjs, 0, iCount, null);
+            Arrays.fill(arrActions, 0, iActions, null);
+            iCount = 0;
+            iActions = 0;
+        }
+    }
+
+    // CLASS event state of an action, handed to action code, events come from the pool of their matcher
+    public static class Event {
+        public Object obj;
+        public int iExtra;
+        public String sEvent;
+        public int iStatus = WAITING;   // 0 - waiting not fired yet, 1 - fired with success, 2- fired with failure
+        private final EventPool pool;
+        private Event next;             // Reference to next object in pool
+
+        // CONSTRUCTOR - Private, events are obtained from a pool
+        private Event(EventPool pool) { this.pool = pool; }
+
+        // METHOD object added to its pool, to be reused
+        public void recycle() { pool.recycle(this); }
+    }
+
+    // CLASS pool of events of one matcher, so Flows never contend for a pool lock or empty each other's pool
+    // size is configurable, hits and misses show if it is big enough for the actions registered and fired
+    public static final class EventPool {
+        public static final int DEFAULT_SIZE = 50;
+        private Event head;
+        private int iSize = 0;
+        private int iMaxSize;
+        private long iHits, iMisses, iDiscarded;
+
+        EventPool(int iMaxSize) { setMaxSize(iMaxSize); }
+
+        // METHOD get pool object only through this method, so no direct allocation are made
+        synchronized Event obtain(String sId) {
+            Event e = head;
+            if (e != null) {
+                head = e.next;
+                e.next = null;
+                e.iStatus = WAITING;
+                e.obj = null;
+                e.iExtra = 0;
+                iSize--;
+                iHits++;
+            } else {
+                e = new Event(this);
+                iMisses++;
+            }
+            e.sEvent = sId;
+            return e;
+        }
+
+        synchronized void recycle(Event e) {
+            e.obj = null;                                           // do not keep user data alive while pooled
+            if (iSize < iMaxSize) {
+                e.next = head;
+                head = e;
+                iSize++;
+            } else {
+                iDiscarded++;
+            }
+        }
+
+        // METHOD changes pool size, extra pooled events are released
+        public synchronized void setMaxSize(int iMaxSize) {
+            if (iMaxSize < 0) throw new IllegalArgumentException("Pool size must be >= 0, was " + iMaxSize);
+            this.iMaxSize = iMaxSize;
+            while (iSize > iMaxSize) {
+                head = head.next;
+                iSize--;
+            }
+        }
+
+        // METHOD release pooled events, ready for garbage collection
+        public synchronized void clear() {
+            head = null;
+            iSize = 0;
+        }
+
+        public synchronized int size() { return iSize; }
+        public synchronized int maxSize() { return iMaxSize; }
+        public synchronized long hits() { return iHits; }               // obtains served from pool
+        public synchronized long misses() { return iMisses; }           // obtains that allocated
+        public synchronized long discarded() { return iDiscarded; }     // recycles dropped as pool was full
+
+        @Override public synchronized String toString() {
+            return "EventPool size " + iSize + "/" + iMaxSize + " hits " + iHits + " misses " + iMisses + " discarded " + iDiscarded;
+        }
+    }
+
+    // CLASS immutable copy of event results of a fired action, handed to action code as data
+    // arrays are pooled and reused, so it is only valid until recycle(), Flow recycles it once Code.onAction returns
+    public static final class Result {
+        private final ResultPool pool;
+        private int iAction;
+        private boolean bSuccess;
+        private int iSize;
+        private EventKey keys[];                                    // Keys of action, array is never changed
+        private int arrStatus[] = new int[4];
+        private int arrExtras[] = new int[4];
+        private Object arrObjs[] = new Object[4];
+        private Result next;                                        // Reference to next object in pool
+        private boolean bInPool = false;
+
+        private Result(ResultPool pool) { this.pool = pool; }
+
+        public int action() { return iAction; }
+        public boolean isSuccess() { return bSuccess; }             // all events succeeded
+        public int size() { return iSize; }
+        public EventKey key(int i) { check(i); return keys[i]; }
+        public String name(int i) { check(i); return keys[i].sEvent; }
+        public int status(int i) { check(i); return arrStatus[i]; } // WAITING, SUCCESS or FAILURE
+        public boolean isSuccess(int i) { check(i); return arrStatus[i] == SUCCESS; }
+        public int extra(int i) { check(i); return arrExtras[i]; }
+        public Object obj(int i) { check(i); return arrObjs[i]; }
+
+        // METHOD returns position of event in action, -1 if action does not wait for it
+        public int indexOf(String sEvent) {
+            for (int i = 0; i < iSize; i++) {
+                if (keys[i].sEvent.equals(sEvent)) return i;
+            }
+            return -1;
+        }
+
+        private void check(int i) {
+            if (i >= iSize || i < 0) throw new IndexOutOfBoundsException("Event " + i + " of " + iSize);
+        }
+
+        // METHOD object added to its pool, to be reused, objects are released so they are not kept alive
+        public void recycle() { pool.recycle(this); }
+
+        @Override public String toString() {
+            StringBuilder buf = new StringBuilder("ACTION: ").append(iAction).append(bSuccess ? " success {" : " failure {");
+            for (int i = 0; i < iSize; i++) { buf.append(keys[i].sEvent).append(arrStatus[i] == SUCCESS ? " T, " : arrStatus[i] == FAILURE ? " F, " : " -, "); }
+            return buf.append('}').toString();
+        }
+    }
+
+    // CLASS pool of snapshots of one matcher, snapshots grow to the largest action and keep their arrays
+    private static final class ResultPool {
+        private static final int MAX_POOL_SIZE = 32;
+        private Result head;
+        private int iSize = 0;
+
+        synchronized Result obtain() {
+            Result result = head;
+            if (result == null) return new Result(this);
+            head = result.next;
+            result.next = null;
+            result.bInPool = false;
+            iSize--;
+            return result;
+        }
+
+        synchronized void recycle(Result result) {
+            if (result.bInPool) return;                             // recycled twice, keep pool list sane
+            Arrays.fill(result.arrObjs, 0, result.iSize, null);
+            result.keys = null;
+            result.iSize = 0;
+            if (iSize < MAX_POOL_SIZE) {
+                result.bInPool = true;
+                result.next = head;
+                head = result;
+                iSize++;
+            }
+        }
+    }
+
+    // CLASS key for a registered event name, keys are per matcher and only valid for the matcher that created them
+    public static final class EventKey {
+        private final EventMatcher matcher;
+        private final int iKey;
+        private final String sEvent;
+
+        private EventKey(EventMatcher matcher, int iKey, String sEvent) {
+            this.matcher = matcher;
+            this.iKey = iKey;
+            this.sEvent = sEvent;
+        }
+
+        public int id() { return iKey; }
+        public String name() { return sEvent; }
+        @Override public String toString() { return sEvent; }
+    }
+
+    // CLASS event index entry, action and position of the event in its list
+    private static class Slot {
+        private final Action action;
+        private final int iSlot;
+        Slot(Action action, int iSlot) {
+            this.action = action;
+            this.iSlot = iSlot;
+        }
+    }
+
+    // CLASS for events for action, when all events occur action is triggered, extended by Flow to carry thread and priority
+    public static class Action {
+        private final int iAction;                                      // Code step to execute for this action
+        private final int iEventCount;                                  // How many event are for this action code to be triggered
+        private final boolean bSequence;                                // Only trigger when events occur in right order, events of other actions are ignored
+        private final boolean bFireOnce;                                // Clear Action once fired, used for wait action
+        private final EventKey keys[];
+        private volatile boolean bRemoved = false;                      // Set when action is un registered, stops stale index slots
+        private final int arrKeys[];                                    // Event keys, kept for index removal after recycle
+        private int iSetStatus = WAITING;                               // Event set status as a whole, waiting, success, non success
+        private int iFireStatus = WAITING;                              // Status action last fired with, result of snapshot()
+        private int iRunType = RESULT_CHANGE;                           // When action fires, see RUN TYPES
+        private boolean bUpdated = false;                               // Event applied since last evaluate, for update run types
+        private boolean bPartial = false;                               // Last fire was an EVENT_UPDATE before all events fired
+        private long lFired, lSuccess;                                  // Bitmask of fired and successful events, up to 64 events
+        private long arrFired[], arrSuccess[];                          // Bitmask words, only for actions with more than 64 events
+        private final long lAll;                                        // Mask with all event bits set, for last word if more than 64
+        private final EventPattern pattern;                             // Compiled pattern, null for event set and sequence actions
+        private int iState = 0;                                         // Pattern state, moves one table step per event
+        private boolean bMatched = false;                               // Pattern reached its match state, not yet fired
+        private long iWindow = 0;                                       // Events older than this do not count, 0 for no window
+        private long arrTimes[];                                        // Time each event fired, only kept with a window
+        private long iPatternStart;                                     // Time pattern left its start state
+        private long iTimeout = 0;                                      // Action fires with false if it has not fired for this long
+        private Expiry expiry;                                          // Timeout timer of current wait, null when not armed, new one per arm
+        private List<Event> listEvents;                                 // Events needed for this action, from matcher pool once registered
+        private EventMatcher matcher;                                   // Set once registered
+
+        // CONSTRUCTOR
+        public Action(int iAction, EventKey keys[], boolean bSequence, boolean bFireOnce) {
+            this(iAction, keys, null, bSequence, bFireOnce);
+        }
+
+        // CONSTRUCTOR pattern action, keys are events of pattern.symbols() in same order
+        public Action(int iAction, EventPattern pattern, EventKey keys[], boolean bFireOnce) {
+            this(iAction, keys, pattern, false, bFireOnce);
+            if (keys.length != pattern.symbolCount()) {
+                throw new IllegalArgumentException("ACTION: " + iAction + " pattern {" + pattern + "} needs " + pattern.symbolCount() + " event keys");
+            }
+        }
+
+        private Action(int iAction, EventKey keys[], EventPattern pattern, boolean bSequence, boolean bFireOnce) {
+            this.iAction = iAction;
+            this.keys = keys;
+            this.pattern = pattern;
+            this.bSequence = bSequence;
+            this.bFireOnce = bFireOnce;
+            iEventCount = keys.length;
+            arrKeys = new int[iEventCount];
+            int iLastBits = iEventCount - ((Math.max(iEventCount, 1) - 1) & ~63);     // Bits used in last word
+            lAll = iLastBits == 64 ? -1L : (1L << iLastBits) - 1;
+            if (iEventCount > 64) {
+                arrFired = new long[(iEventCount + 63) >>> 6];
+                arrSuccess = new long[arrFired.length];
+            }
+            for (int i = 0; i < iEventCount; i++) { arrKeys[i] = keys[i].iKey; }
+        }
+
+        // METHOD gets events from pool of matcher action is registered with
+        private void obtainEvents(EventMatcher matcher) {
+            if (listEvents != null) throw new IllegalStateException("ACTION: " + iAction + " is already registered");
+            List<Event> list = new ArrayList<>(iEventCount);
+            for (int i = 0; i < iEventCount; i++) { list.add(matcher.pool.obtain(keys[i].sEvent)); }
+            listEvents = list;
+            this.matcher = matcher;
+        }
+
+        public final int id() { return iAction; }
+        public final boolean isFireOnce() { return bFireOnce; }
+        public final EventKey[] keys() { return keys; }
+        public final EventPattern pattern() { return pattern; }
+        public final long window() { return iWindow; }
+        public final long timeout() { return iTimeout; }
+        public final synchronized int runType() { return iRunType; }
+
+        // METHOD sets when action fires, RESULT_CHANGE, RESULT_UPDATE or EVENT_UPDATE, may be changed once registered
+        // in a Batch action fires at most once per commit, whatever the run type
+        public final synchronized Action runType(int iRunType) {
+            if (iRunType < RESULT_CHANGE || iRunType > EVENT_UPDATE) throw new IllegalArgumentException("Unknown run type " + iRunType);
+            this.iRunType = iRunType;
+            return this;
+        }
+
+        // METHOD all events must fire within iWindow millis of each other, events older than that are reset when the
+        // action completes, pattern restarts if its first step is older, set before register()
+        public final Action window(long iWindow) {
+            checkNotRegistered();
+            if (iWindow <= 0) throw new IllegalArgumentException("Window must be > 0, was " + iWindow);
+            this.iWindow = iWindow;
+            arrTimes = new long[iEventCount];
+            return this;
+        }
+
+        // METHOD action fires with bSuccess false if it has not fired within iTimeout millis of register() or of the first event
+        // after its last fire, events are then cleared so a complete new set is needed, fire once actions are removed
+        // an action idle after a fire or timeout has no timer running, so it fires false once, set before register()
+        public final Action timeout(long iTimeout) {
+            checkNotRegistered();
+            if (iTimeout <= 0) throw new IllegalArgumentException("Timeout must be > 0, was " + iTimeout);
+            this.iTimeout = iTimeout;
+            return this;
+        }
+
+        private void checkNotRegistered() {
+            if (matcher != null) throw new IllegalStateException("ACTION: " + iAction + " is already registered");
+        }
+
+        // CLASS timeout timer, expires on the thread driving the scheduler
+        // the wheel drops it before onExpire() takes the action lock, so an event may fire the action in between
+        // each arm makes a new one, so the action can tell a late callback of an old timer from its current one
+        private final class Expiry extends TimerWheel.Timer {
+            @Override protected void onExpire() { onTimeout(this); }
+        }
+
+        // METHOD starts timeout if it is not running, at register and when an event leaves action waiting
+        private synchronized void armTimeout() {
+            if (iTimeout > 0 && !bRemoved && expiry == null) {
+                expiry = new Expiry();
+                matcher.scheduler.schedule(expiry, matcher.scheduler.now() + iTimeout);
+            }
+        }
+
+        // METHOD action did not fire in time, sink gets it with false, snapshot shows which events were still waiting
+        private void onTimeout(Expiry timer) {
+            synchronized (this) {
+                if (bRemoved || timer != expiry) return;                // action fired or was armed again since timer was taken
+                iSetStatus = iFireStatus = FAILURE;
+                bPartial = false;
+                matcher.sink.onFire(this, false);
+                if (!bFireOnce) resetAll();
+                fired();
+            }
+            if (bFireOnce) matcher.removeFired(this);
+        }
+
+        // METHOD copies event results, called in sink holding action lock, so copy is consistent and later events do not change it
+        public final synchronized Result snapshot() {
+            Result result = matcher.resultPool.obtain();
+            if (result.arrStatus.length < iEventCount) {
+                result.arrStatus = new int[iEventCount];
+                result.arrExtras = new int[iEventCount];
+                result.arrObjs = new Object[iEventCount];
+            }
+            result.iAction = iAction;
+            result.bSuccess = iFireStatus == SUCCESS;
+            result.keys = keys;
+            result.iSize = iEventCount;
+            for (int i = 0; i < iEventCount; i++) {
+                Event event = listEvents.get(i);
+                result.arrStatus[i] = event.iStatus;
+                result.arrExtras[i] = event.iExtra;
+                result.arrObjs[i] = event.obj;
+            }
+            return result;
+        }
+
+        // METHOD recycles events and clears actions
+        public synchronized void recycle() {
+            if (listEvents == null) return;                             // already recycled, fire once action
+            int iSize = listEvents.size();
+            for (int i = 0; i < iSize; i++) {
+                listEvents.get(i).recycle();
+            }
+            listEvents = null;
+        }
+
+        // METHOD marks action removed, events in flight on other threads will ignore it
+        private synchronized void remove() {
+            bRemoved = true;
+            if (expiry != null) matcher.scheduler.cancel(expiry);
+            expiry = null;
+        }
+
+        // METHOD called from event index, with position of the fired event in this action, returns true if fire once action is done
+        // synchronized on the action, so events for different actions never contend and no update is lost
+        private synchronized boolean onEvent(Sink sink, int iSlot, boolean bResult, int iExtra, Object obj) {
+            if (!apply(iSlot, bResult, iExtra, obj)) return false;
+            int iStatus = evaluate();
+            if (iStatus == WAITING) return false;
+            sink.onFire(this, iStatus == SUCCESS);
+            return fired();
+        }
+
+        // METHOD sets state of fired event, returns true if action may fire, called holding action lock
+        private boolean apply(int iSlot, boolean bResult, int iExtra, Object obj) {
+            if (bRemoved) return false;                                 // removed by another thread, or fired once already
+            if (pattern != null) return applyPattern(iSlot, bResult, iExtra, obj);
+            if (bSequence) {
+                int iWaiting = firstWaiting(iSlot);                     // if its a Sequence action, no event should be empty before current event
+                if (iWaiting != -1) {
+                    if (iWaiting != 0) { resetEvent(iWaiting - 1); }    // reset last one, so they are always in sequence
+                    return false;
+                }
+            }
+
+            Event event = listEvents.get(iSlot);
+            event.obj = obj;
+            event.iExtra = iExtra;
+            event.iStatus = bResult ? SUCCESS : FAILURE;
+            setEvent(iSlot, bResult);
+            if (arrTimes != null) arrTimes[iSlot] = matcher.scheduler.now();
+            bUpdated = true;
+            if (iTimeout > 0 && !allFired()) armTimeout();              // new event starts a cycle, timeout counts from it
+            return iRunType != RESULT_CHANGE || !bSequence || iSlot == iEventCount - 1;  // Sequence completes only on its last event
+        }
+
+        // METHOD moves pattern one step, event values are kept so result shows latest value of each event
+        private boolean applyPattern(int iSlot, boolean bResult, int iExtra, Object obj) {
+            Event event = listEvents.get(iSlot);
+            event.obj = obj;
+            event.iExtra = iExtra;
+            event.iStatus = bResult ? SUCCESS : FAILURE;
+            bUpdated = true;
+            if (iWindow > 0) {
+                long iNow = matcher.scheduler.now();
+                if (iState != 0 && iNow - iPatternStart > iWindow) iState = 0;     // first step too old, start again
+                if (iState == 0) iPatternStart = iNow;
+            }
+            iState = pattern.next(iState, iSlot);
+            if (!pattern.isMatch(iState)) {
+                if (iTimeout > 0) armTimeout();                         // new event starts a cycle, timeout counts from it
+                return iRunType == EVENT_UPDATE;
+            }
+            iState = 0;                                                 // restart, next run of events can match again
+            bMatched = true;
+            return true;
+        }
+
+        // METHOD returns new status if action should fire, WAITING if not, called holding action lock
+        private int evaluate() {
+            boolean bUpdate = bUpdated;
+            bUpdated = false;
+            bPartial = false;
+            if (bRemoved) return WAITING;
+            if (pattern != null) {                                      // pattern fires on every match, not only on change
+                if (bMatched) {
+                    bMatched = false;
+                    return iSetStatus = iFireStatus = SUCCESS;
+                }
+                return partial(bUpdate);                                // step of pattern, for EVENT_UPDATE
+            }
+            if (!allFired()) return partial(bUpdate);                   // if all events for action has been fired
+            if (arrTimes != null && expireEvents()) return partial(bUpdate);   // some fired outside window, they have to fire again
+            int iCurStatus = allSuccess() ? SUCCESS : FAILURE;          // all events registered success
+            boolean bChanged = iCurStatus != iSetStatus;
+            iSetStatus = iCurStatus;
+            if (!bChanged && (iRunType == RESULT_CHANGE || !bUpdate)) return WAITING;   // run code on change, or on update if asked
+            return iFireStatus = iCurStatus;
+        }
+
+        // METHOD EVENT_UPDATE fire before action is complete, fire once actions are not removed by it
+        private int partial(boolean bUpdate) {
+            if (bUpdate && iTimeout > 0) armTimeout();                  // events fired outside window have to fire again
+            if (iRunType != EVENT_UPDATE || !bUpdate) return WAITING;
+            bPartial = true;
+            return iFireStatus = FAILURE;
+        }
+
+        // METHOD called after action is queued to run, called holding action lock, returns true if fire once action is done
+        // timeout stops until next event leaves action waiting, so an idle action does not fire false again
+        private boolean fired() {
+            if (bPartial) return false;     // update only, action is still waiting and timeout keeps running
+            if (expiry != null) {
+                matcher.scheduler.cancel(expiry);     // false if it is already expiring, onTimeout() then ignores it
+                expiry = null;
+            }
+            if (bFireOnce) {
+                bRemoved = true;            // no other thread can fire it again
+                recycle();                  // Recycle if its flagged for it
+                return true;
+            }
+            return false;
+        }
+
+        // METHOD resets events fired more than window ago, returns true if any was reset
+        private boolean expireEvents() {
+            long iOldest = matcher.scheduler.now() - iWindow;
+            boolean bExpired = false;
+            for (int i = 0; i < iEventCount; i++) {
+                if (arrTimes[i] < iOldest) {
+                    resetEvent(i);
+                    bExpired = true;
+                }
+            }
+            return bExpired;
+        }
+
+        // METHOD clears all events after a timeout, so the next set starts from scratch
+        private void resetAll() {
+            for (int i = 0; i < iEventCount; i++) { resetEvent(i); }
+            iState = 0;
+            bMatched = false;
+        }
+
+        // METHODS event state bitmasks, bit n is event n, words array is only used for more than 64 events
+        private void setEvent(int iSlot, boolean bResult) {
+            if (arrFired == null) {
+                long lBit = 1L << iSlot;
+                lFired |= lBit;
+                lSuccess = bResult ? (lSuccess | lBit) : (lSuccess & ~lBit);
+            } else {
+                long lBit = 1L << (iSlot & 63);
+                int iWord = iSlot >>> 6;
+                arrFired[iWord] |= lBit;
+                arrSuccess[iWord] = bResult ? (arrSuccess[iWord] | lBit) : (arrSuccess[iWord] & ~lBit);
+            }
+        }
+
+        private void resetEvent(int iSlot) {
+            listEvents.get(iSlot).iStatus = WAITING;
+            if (arrFired == null) {
+                long lBit = ~(1L << iSlot);
+                lFired &= lBit;
+                lSuccess &= lBit;
+            } else {
+                long lBit = ~(1L << (iSlot & 63));
+                arrFired[iSlot >>> 6] &= lBit;
+                arrSuccess[iSlot >>> 6] &= lBit;
+            }
+        }
+
+        // METHOD returns first event below iLimit not fired yet, -1 if all are fired
+        private int firstWaiting(int iLimit) {
+            if (arrFired == null) {
+                long lWaiting = ~lFired & ((1L << iLimit) - 1);
+                return lWaiting == 0 ? -1 : Long.numberOfTrailingZeros(lWaiting);
+            }
+            for (int iWord = 0; (iWord << 6) < iLimit; iWord++) {
+                int iBits = Math.min(64, iLimit - (iWord << 6));
+                long lWaiting = ~arrFired[iWord] & (iBits == 64 ? -1L : (1L << iBits) - 1);
+                if (lWaiting != 0) return (iWord << 6) + Long.numberOfTrailingZeros(lWaiting);
+            }
+            return -1;
+        }
+
+        private boolean allFired() { return arrFired == null ? lFired == lAll : allSet(arrFired); }
+        private boolean allSuccess() { return arrFired == null ? lSuccess == lAll : allSet(arrSuccess); }
+
+        private boolean allSet(long arrWords[]) {
+            int iLast = arrWords.length - 1;
+            for (int i = 0; i < iLast; i++) {
+                if (arrWords[i] != -1L) return false;
+            }
+            return arrWords[iLast] == lAll;                             // lAll holds mask of last word
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.helper.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Version 1.0
+// Event pattern compiled to a state machine once, at registration, each event then costs one table lookup
+// Syntax: a then b        b after a, other events in between are ignored
+//       : a or b          either event
+//       : 3*retry         event three times, times sign U+00D7 also works in place of *
+//       : (a or b) then c brackets group, 'or' binds closer than 'then'
+//       : p without c     c resets the pattern, may be given once at the end, 'without c or d' for more events
+// Example: EventPattern.compile("login then 3*retry_failed without login_ok")
+// Pattern restarts once it has matched, so it matches again on the next complete run of events
+public final class EventPattern {
+    private static final int MAX_STATES = 1024;                         // Limit on compiled states, patterns are meant to be small
+    private static final int EPSILON = -1;
+    private static final Pattern TOKEN = Pattern.compile("\\(|\\)|\\d+\\s*[*\u00D7]|[^\\s()]+");
+    private final String sPattern;
+    private final String arrSymbols[];                                  // Event names, pattern events first then 'without' events
+    private final int arrNext[];                                        // Next state by [state * symbols + symbol]
+    private final boolean arrMatch[];                                   // State reached when pattern matched
+    private final int iStates;
+
+    private EventPattern(String sPattern, String arrSymbols[], int arrNext[], boolean arrMatch[], int iStates) {
+        this.sPattern = sPattern;
+        this.arrSymbols = arrSymbols;
+        this.arrNext = arrNext;
+        this.arrMatch = arrMatch;
+        this.iStates = iStates;
+    }
+
+    // METHODS state machine, state 0 is start, matcher goes back to start once a match state is reached
+    public String[] symbols() { return arrSymbols.clone(); }
+    public int symbolCount() { return arrSymbols.length; }
+    public int states() { return iStates; }
+    public int next(int iState, int iSymbol) { return arrNext[iState * arrSymbols.length + iSymbol]; }
+    public boolean isMatch(int iState) { return arrMatch[iState]; }
+    @Override public String toString() { return sPattern; }
+
+    // METHOD throws IllegalArgumentException with position of error if pattern is not valid
+    public static EventPattern compile(String sPattern) {
+        return new Compiler(sPattern).compile();
+    }
+
+    // CLASS NFA node, iSymbol edge to out, or epsilon edges to out and out1
+    private static final class Node {
+        private final int id;
+        private int iSymbol = EPSILON;
+        private Node out, out1;
+        Node(int id) { this.id = id; }
+    }
+
+    // CLASS part of NFA, end is an epsilon node not connected yet
+    private static final class Frag {
+        private final Node start, end;
+        Frag(Node start, Node end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // CLASS parses pattern to NFA, then builds DFA by subset construction
+    private static final class Compiler {
+        private final String sPattern;
+        private final List<String> listTokens = new ArrayList<>();
+        private final List<Integer> listPos = new ArrayList<>();
+        private final List<Node> listNodes = new ArrayList<>();
+        private final HashMap<String, Integer> mapSymbols = new HashMap<>();
+        private final List<String> listSymbols = new ArrayList<>();
+        private int iToken = 0;
+
+        Compiler(String sPattern) {
+            this.sPattern = sPattern;
+            Matcher m = TOKEN.matcher(sPattern);
+            while (m.find()) {
+                listTokens.add(m.group());
+                listPos.add(m.start());
+            }
+        }
+
+        EventPattern compile() {
+            Frag frag = parseSeq();
+            int iPatternSymbols = listSymbols.size();
+            if (accept("without")) {
+                do {
+                    String sName = name();
+                    if (mapSymbols.containsKey(sName)) error("{" + sName + "} is used in pattern and after 'without'");
+                    symbol(sName);
+                } while (accept("or"));
+            }
+            if (iToken < listTokens.size()) error("Unexpected '" + listTokens.get(iToken) + "'");
+            return build(frag, iPatternSymbols);
+        }
+
+        // seq := alt ('then' alt)*
+        private Frag parseSeq() {
+            Frag frag = parseAlt();
+            while (accept("then")) {
+                Frag next = parseAlt();
+                frag.end.out = next.start;
+                frag = new Frag(frag.start, next.end);
+            }
+            return frag;
+        }
+
+        // alt := rep ('or' rep)*, 'or' before 'without' ends the pattern part
+        private Frag parseAlt() {
+            Frag frag = parseRep();
+            while (accept("or")) {
+                Frag other = parseRep();
+                Node split = node(), end = node();
+                split.out = frag.start;
+                split.out1 = other.start;
+                frag.end.out = end;
+                other.end.out = end;
+                frag = new Frag(split, end);
+            }
+            return frag;
+        }
+
+        // rep := [N '*'] atom, repetition is expanded, atom is parsed again for each copy
+        private Frag parseRep() {
+            String sToken = peek();
+            if (sToken == null || !Character.isDigit(sToken.charAt(0)) || !isRepeat(sToken)) return parseAtom();
+            int iCount = Integer.parseInt(sToken.replaceAll("[^0-9]", ""));
+            if (iCount < 1 || iCount > 64) error("Repeat count must be 1..64, was " + iCount);
+            iToken++;
+            int iStart = iToken;
+            Frag frag = parseAtom();
+            for (int i = 1; i < iCount; i++) {
+                iToken = iStart;
+                Frag next = parseAtom();
+                frag.end.out = next.start;
+                frag = new Frag(frag.start, next.end);
+            }
+            return frag;
+        }
+
+        // atom := name | '(' seq ')'
+        private Frag parseAtom() {
+            if (accept("(")) {
+                Frag frag = parseSeq();
+                if (!accept(")")) error("Missing ')'");
+                return frag;
+            }
+            Node edge = node(), end = node();
+            edge.iSymbol = symbol(name());
+            edge.out = end;
+            return new Frag(edge, end);
+        }
+
+        private static boolean isRepeat(String sToken) {
+            char c = sToken.charAt(sToken.length() - 1);
+            return c == '*' || c == '\u00D7';
+        }
+
+        private String name() {
+            String sToken = peek();
+            if (sToken == null) error("Event name expected at end of pattern");
+            if (sToken.equals("then") || sToken.equals("or") || sToken.equals("without") || sToken.equals("(") || sToken.equals(")")
+                    || isRepeat(sToken)) {
+                error("Event name expected, found '" + sToken + "'");
+            }
+            iToken++;
+            return sToken;
+        }
+
+        private int symbol(String sName) {
+            Integer iSymbol = mapSymbols.get(sName);
+            if (iSymbol == null) {
+                iSymbol = listSymbols.size();
+                mapSymbols.put(sName, iSymbol);
+                listSymbols.add(sName);
+            }
+            return iSymbol;
+        }
+
+        private String peek() { return iToken < listTokens.size() ? listTokens.get(iToken) : null; }
+
+        private boolean accept(String sToken) {
+            if (!sToken.equals(peek())) return false;
+            iToken++;
+            return true;
+        }
+
+        private Node node() {
+            Node node = new Node(listNodes.size());
+            listNodes.add(node);
+            return node;
+        }
+
+        private void error(String sError) {
+            int iPos = iToken < listPos.size() ? listPos.get(iToken) : sPattern.length();
+            throw new IllegalArgumentException(sError + ", at " + iPos + " in pattern {" + sPattern + "}");
+        }
+
+        // METHOD subset construction, a state is the set of NFA positions waiting for an event
+        // positions are kept when an event does not move them, so events that do not fit are skipped
+        private EventPattern build(Frag frag, int iPatternSymbols) {
+            int iSymbols = listSymbols.size();
+            Node end = frag.end;
+            List<BitSet> listStates = new ArrayList<>();
+            HashMap<BitSet, Integer> mapStates = new HashMap<>();
+            BitSet start = new BitSet();
+            closure(frag.start, start);
+            listStates.add(start);
+            mapStates.put(start, 0);
+            int arrNext[] = new int[64 * iSymbols];
+            boolean arrMatch[] = new boolean[64];
+            for (int iState = 0; iState < listStates.size(); iState++) {
+                if (arrNext.length < listStates.size() * iSymbols) {
+                    arrNext = Arrays.copyOf(arrNext, arrNext.length * 2);
+                }
+                if (arrMatch.length < listStates.size()) arrMatch = Arrays.copyOf(arrMatch, arrMatch.length * 2);
+                BitSet state = listStates.get(iState);
+                if (state.get(end.id)) {
+                    arrMatch[iState] = true;                            // matcher restarts, no moves needed
+                    continue;
+                }
+                for (int iSymbol = 0; iSymbol < iSymbols; iSymbol++) {
+                    int iNext = 0;                                      // 'without' events go back to start
+                    if (iSymbol < iPatternSymbols) {
+                        BitSet next = (BitSet) state.clone();
+                        for (int i = state.nextSetBit(0); i >= 0; i = state.nextSetBit(i + 1)) {
+                            Node node = listNodes.get(i);
+                            if (node.iSymbol == iSymbol) closure(node.out, next);
+                        }
+                        if (next.get(end.id)) {                         // match, other positions are dropped
+                            next = new BitSet();
+                            next.set(end.id);
+                        }
+                        Integer iFound = mapStates.get(next);
+                        if (iFound == null) {
+                            if (listStates.size() == MAX_STATES) {
+                                throw new IllegalArgumentException("Pattern {" + sPattern + "} needs more than " + MAX_STATES + " states");
+                            }
+                            iFound = listStates.size();
+                            listStates.add(next);
+                            mapStates.put(next, iFound);
+                        }
+                        iNext = iFound;
+                    }
+                    arrNext[iState * iSymbols + iSymbol] = iNext;
+                }
+            }
+            int iStates = listStates.size();
+            return new EventPattern(sPattern, listSymbols.toArray(new String[iSymbols]),
+                    Arrays.copyOf(arrNext, iStates * iSymbols), Arrays.copyOf(arrMatch, iStates), iStates);
+        }
+
+        // METHOD adds node and nodes reached by epsilon edges, only nodes with an event edge and the end node are kept
+        private void closure(Node node, BitSet set) {
+            while (node != null) {
+                if (node.iSymbol != EPSILON) {
+                    set.set(node.id);
+                    return;
+                }
+                if (node.out == null) {                                 // end node of whole pattern
+                    set.set(node.id);
+                    return;
+                }
+                if (node.out1 != null) closure(node.out1, set);
+                node = node.out;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.helper.lib;
+
+// Version 1.0
+// Clock and timer backend of Flow delayed and repeat actions
+// Flow uses uptime millis and a shared timer thread, VirtualScheduler runs the same timers on a virtual clock
+public interface TimerScheduler {
+    // METHOD current time in millis of this scheduler's clock
+    long now();
+
+    // METHOD schedules or moves timer, its onExpire() is called once deadline is reached
+    void schedule(TimerWheel.Timer timer, long iDeadline);
+
+    // METHOD returns false if timer had already expired or was not scheduled
+    boolean cancel(TimerWheel.Timer timer);
+}
@@ -0,0 +1,181 @@
+package com.helper.lib;
+
+// Version 1.0
+// Hierarchical timing wheel, schedule and cancel are O(1) and need no allocation
+// Timers are kept in 6 levels of 64 buckets, a level n bucket covers 64^n ticks, when its turn comes
+// its timers move down to a lower level, level 0 buckets are one tick each
+// Class does not depend on Android, time is given by caller in ticks, Flow uses uptime millis
+// nextTick() returns the only tick that has work, so the driver thread sleeps until then
+// Timers are appended to buckets, so timers due at the same tick expire in a repeatable order
+public final class TimerWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;                             // Buckets per level
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;                                    // 64^6 ticks, over 2 years of millis
+    private static final long MAX_SPAN = 1L << (BITS * LEVELS);             // Longer timers wait in top level and are placed again
+    private final Timer arrBuckets[][] = new Timer[LEVELS][SLOTS];          // Head of timer list of each bucket
+    private final Timer arrTails[][] = new Timer[LEVELS][SLOTS];
+    private final long arrOccupied[] = new long[LEVELS];                    // Bit n set when bucket n of level has timers
+    private Timer due, dueTail;                                             // Timers already due when scheduled
+    private long iNow;                                                      // All timers up to this tick have expired
+    private int iSize = 0;
+
+    // CLASS timer, extend and implement onExpire(), a timer can be scheduled again once expired or cancelled
+    public abstract static class Timer {
+        private long iDeadline;
+        private Timer prev, next;
+        private int iLevel = -1;                                            // -1 not scheduled, LEVELS in due list
+        private int iBucket;
+
+        public final long deadline() { return iDeadline; }
+        public final boolean isScheduled() { return iLevel != -1; }
+
+        // METHOD called by advance() on driver thread, without the wheel lock, so it may schedule and take its own locks
+        protected abstract void onExpire();
+    }
+
+    public TimerWheel(long iNow) { this.iNow = iNow; }
+
+    public synchronized long now() { return iNow; }
+    public synchronized int size() { return iSize; }
+
+    // METHOD schedules timer, a timer already scheduled is moved to new deadline
+    public synchronized void schedule(Timer timer, long iDeadline) {
+        if (timer.iLevel != -1) {
+            unlink(timer);
+        } else {
+            iSize++;
+        }
+        timer.iDeadline = iDeadline;
+        insert(timer);
+    }
+
+    // METHOD returns false if timer was not scheduled, i.e. already expired or cancelled
+    public synchronized boolean cancel(Timer timer) {
+        if (timer.iLevel == -1) return false;
+        unlink(timer);
+        timer.iLevel = -1;
+        iSize--;
+        return true;
+    }
+
+    // METHOD returns next tick where advance() has work, Long.MAX_VALUE if no timer is scheduled
+    public synchronized long nextTick() {
+        if (due != null) return iNow;
+        long iNext = Long.MAX_VALUE;
+        for (int iLevel = 0; iLevel < LEVELS; iLevel++) {
+            long lMask = arrOccupied[iLevel];
+            if (lMask == 0) continue;
+            int iShift = BITS * iLevel;
+            long iPos = iNow >>> iShift;                                    // bucket number of now at this level
+            long lRotated = Long.rotateRight(lMask, (int) (iPos & MASK) + 1);   // bit 0 is bucket after current
+            long iTick = (iPos + Long.numberOfTrailingZeros(lRotated) + 1) << iShift;
+            if (iTick < iNext) iNext = iTick;
+        }
+        return iNext;
+    }
+
+    // METHOD moves time to iTarget, expiring due timers in deadline order, returns number expired
+    // empty ticks are skipped, so the cost depends on the number of timers not on time passed
+    public int advance(long iTarget) {
+        int iExpired = 0;
+        Timer timer;
+        while ((timer = poll(iTarget)) != null) {
+            timer.onExpire();                                               // lock released, callers locks are never taken inside it
+            iExpired++;
+        }
+        return iExpired;
+    }
+
+    // METHOD removes first due timer, moving time to next tick with timers up to iTarget, null once none is due
+    private synchronized Timer poll(long iTarget) {
+        while (due == null) {                                               // due when scheduled, by cascade or by tick
+            long iTick = nextTick();
+            if (iTick > iTarget) {
+                if (iTarget > iNow) iNow = iTarget;
+                return null;
+            }
+            iNow = iTick;
+            for (int iLevel = LEVELS - 1; iLevel > 0; iLevel--) {           // higher levels first, they fill lower buckets of this tick
+                int iShift = BITS * iLevel;
+                if ((iTick & ((1L << iShift) - 1)) == 0) cascade(iLevel, (int) ((iTick >>> iShift) & MASK));
+            }
+            int iBucket = (int) (iTick & MASK);
+            Timer timer = arrBuckets[0][iBucket];
+            if (timer == null) continue;
+            due = timer;                                                    // bucket becomes due list, order is kept
+            dueTail = arrTails[0][iBucket];
+            arrBuckets[0][iBucket] = arrTails[0][iBucket] = null;
+            arrOccupied[0] &= ~(1L << iBucket);
+            for (; timer != null; timer = timer.next) { timer.iLevel = LEVELS; }
+        }
+        Timer timer = due;
+        unlink(timer);
+        timer.iLevel = -1;
+        iSize--;
+        return timer;
+    }
+
+    // METHOD moves all timers of a bucket to lower levels
+    private void cascade(int iLevel, int iBucket) {
+        Timer timer = arrBuckets[iLevel][iBucket];
+        arrBuckets[iLevel][iBucket] = arrTails[iLevel][iBucket] = null;
+        arrOccupied[iLevel] &= ~(1L << iBucket);
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.prev = timer.next = null;
+            insert(timer);
+            timer = next;
+        }
+    }
+
+    private void insert(Timer timer) {
+        long iDelta = timer.iDeadline - iNow;
+        if (iDelta <= 0) {
+            link(timer, LEVELS, 0);
+            return;
+        }
+        long iTick = timer.iDeadline;
+        if (iDelta >= MAX_SPAN) iTick = iNow + MAX_SPAN - 1;               // placed again when top bucket comes round
+        int iLevel = Math.min(LEVELS - 1, (63 - Long.numberOfLeadingZeros(iTick - iNow)) / BITS);
+        link(timer, iLevel, (int) ((iTick >>> (BITS * iLevel)) & MASK));
+    }
+
+    // METHOD appends timer to end of a bucket or of due list
+    private void link(Timer timer, int iLevel, int iBucket) {
+        timer.iLevel = iLevel;
+        timer.iBucket = iBucket;
+        timer.next = null;
+        if (iLevel == LEVELS) {
+            timer.prev = dueTail;
+            if (dueTail == null) due = timer; else dueTail.next = timer;
+            dueTail = timer;
+        } else {
+            Timer tail = arrTails[iLevel][iBucket];
+            timer.prev = tail;
+            if (tail == null) arrBuckets[iLevel][iBucket] = timer; else tail.next = timer;
+            arrTails[iLevel][iBucket] = timer;
+            arrOccupied[iLevel] |= 1L << iBucket;
+        }
+    }
+
+    private void unlink(Timer timer) {
+        boolean bDue = timer.iLevel == LEVELS;
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else if (bDue) {
+            due = timer.next;
+        } else {
+            arrBuckets[timer.iLevel][timer.iBucket] = timer.next;
+            if (timer.next == null) arrOccupied[timer.iLevel] &= ~(1L << timer.iBucket);
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        } else if (bDue) {
+            dueTail = timer.prev;
+        } else {
+            arrTails[timer.iLevel][timer.iBucket] = timer.prev;
+        }
+        timer.prev = timer.next = null;
+    }
+}
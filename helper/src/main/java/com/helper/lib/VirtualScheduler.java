@@ -0,0 +1,42 @@
+package com.helper.lib;
+
+// Version 1.0
+// Scheduler on a virtual clock, time only moves when advance is called, timers expire on the calling thread
+// Replays hours of delayed and repeat actions in moments, in the same order every run
+// Example: VirtualScheduler clock = new VirtualScheduler(0)
+//        : new Flow(code, executor, clock).runRepeat(1, false, 1000, Flow.Repeat.FIXED_RATE, Flow.Repeat.SKIP)
+//        : clock.advanceBy(3600000)                           one hour of repeats, now() inside code is the deadline
+public final class VirtualScheduler implements TimerScheduler {
+    private final TimerWheel wheel;
+    private volatile long iNow;
+
+    public VirtualScheduler(long iStart) {
+        iNow = iStart;
+        wheel = new TimerWheel(iStart);
+    }
+
+    @Override public long now() { return iNow; }
+    @Override public void schedule(TimerWheel.Timer timer, long iDeadline) { wheel.schedule(timer, iDeadline); }
+    @Override public boolean cancel(TimerWheel.Timer timer) { return wheel.cancel(timer); }
+
+    public int size() { return wheel.size(); }
+
+    // METHOD returns deadline of next timer tick, Long.MAX_VALUE if no timer is scheduled
+    public long nextDeadline() { return wheel.nextTick(); }
+
+    public int advanceBy(long iMillis) { return advanceTo(iNow + iMillis); }
+
+    // METHOD moves clock to iTarget tick by tick, so each timer sees now() equal to its deadline, returns timers expired
+    public synchronized int advanceTo(long iTarget) {
+        int iExpired = 0;
+        while (true) {
+            long iTick = wheel.nextTick();
+            if (iTick > iTarget) break;
+            if (iTick > iNow) iNow = iTick;
+            iExpired += wheel.advance(iTick);
+        }
+        if (iTarget > iNow) iNow = iTarget;
+        wheel.advance(iNow);
+        return iExpired;
+    }
+}
@@ -0,0 +1,115 @@
+package com.helper.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+// Delayed and repeat actions on a virtual clock, target records runs and dropped data
+public class ActionTimersTest {
+    private final List<String> listRuns = new ArrayList<>();
+    private final List<Object> listDropped = new ArrayList<>();
+    private VirtualScheduler clock = new VirtualScheduler(0);
+    private ActionTimers timers;
+
+    private final ActionTimers.Target target = new ActionTimers.Target() {
+        @Override public void onTimer(boolean bRunOnUI, int iAction, boolean bSuccess, int iExtra, Object obj) {
+            listRuns.add(iAction + "@" + clock.now() + (obj instanceof String ? ":" + obj : ""));
+        }
+        @Override public void onDrop(Object obj) { listDropped.add(obj); }
+    };
+
+    private ActionTimers timers(TimerScheduler scheduler) {
+        timers = new ActionTimers(scheduler, target);
+        return timers;
+    }
+
+    @Test
+    public void delayedRunsOnce() {
+        timers(clock).runDelayed(false, 1, true, 0, "x", 500);
+        clock.advanceBy(2000);
+        assertEquals(Arrays.asList("1@500:x"), listRuns);
+    }
+
+    @Test
+    public void newDelayedRunReplacesPendingOne() {
+        timers(clock).runDelayed(false, 1, true, 0, "old", 500);
+        timers.runDelayed(false, 1, true, 0, "new", 800);
+        timers.runDelayed(true, 1, true, 0, "ui", 600);         // ui run of same action is kept apart
+        clock.advanceBy(2000);
+        assertEquals(Arrays.asList("1@600:ui", "1@800:new"), listRuns);
+        assertEquals(Arrays.<Object>asList("old"), listDropped);
+    }
+
+    @Test
+    public void cancelledDelayedRunIsDropped() {
+        timers(clock).runDelayed(false, 1, true, 0, "x", 500);
+        timers.cancelDelayed(1);
+        clock.advanceBy(2000);
+        assertEquals(0, listRuns.size());
+        assertEquals(Arrays.<Object>asList("x"), listDropped);
+    }
+
+    // cancel between runDelayed() putting the task in its map and scheduling it
+    @Test
+    public void delayedRunCancelledBeforeScheduleIsDropped() {
+        timers(new VirtualSchedulerProxy(clock) {
+            @Override public void schedule(TimerWheel.Timer timer, long iDeadline) {
+                timers.cancelDelayed(1);
+                super.schedule(timer, iDeadline);
+            }
+        }).runDelayed(false, 1, true, 0, "x", 500);
+        clock.advanceBy(2000);
+        assertEquals(0, listRuns.size());
+        assertEquals(Arrays.<Object>asList("x"), listDropped);
+    }
+
+    // second runDelayed() between the first putting its task in the map and scheduling it
+    @Test
+    public void delayedRunReplacedBeforeScheduleIsDropped() {
+        final boolean arrNested[] = new boolean[1];
+        timers(new VirtualSchedulerProxy(clock) {
+            @Override public void schedule(TimerWheel.Timer timer, long iDeadline) {
+                if (!arrNested[0]) {
+                    arrNested[0] = true;
+                    timers.runDelayed(false, 1, true, 0, "new", 800);
+                }
+                super.schedule(timer, iDeadline);
+            }
+        }).runDelayed(false, 1, true, 0, "old", 500);
+        clock.advanceBy(2000);
+        assertEquals(Arrays.asList("1@800:new"), listRuns);
+        assertEquals(Arrays.<Object>asList("old"), listDropped);
+    }
+
+    @Test
+    public void fixedRateSkipStaysOnGrid() {
+        timers(clock).runRepeat(false, 2, true, 0, 100, ActionTimers.FIXED_RATE, ActionTimers.SKIP);
+        clock.advanceBy(350);
+        timers.cancelRepeat(2);
+        clock.advanceBy(1000);
+        assertEquals(Arrays.asList("2@0", "2@100", "2@200", "2@300"), listRuns);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownRepeatModeIsRejected() {
+        timers(clock).runRepeat(false, 2, true, 0, 100, 7, ActionTimers.SKIP);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMissedTickPolicyIsRejected() {
+        timers(clock).runRepeat(false, 2, true, 0, 100, ActionTimers.FIXED_RATE, -1);
+    }
+
+    // CLASS scheduler passing calls to a VirtualScheduler, tests override a call to run code inside it
+    private static class VirtualSchedulerProxy implements TimerScheduler {
+        private final VirtualScheduler clock;
+        VirtualSchedulerProxy(VirtualScheduler clock) { this.clock = clock; }
+        @Override public long now() { return clock.now(); }
+        @Override public void schedule(TimerWheel.Timer timer, long iDeadline) { clock.schedule(timer, iDeadline); }
+        @Override public boolean cancel(TimerWheel.Timer timer) { return clock.cancel(timer); }
+    }
+}
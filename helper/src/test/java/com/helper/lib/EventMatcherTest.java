@@ -0,0 +1,277 @@
+package com.helper.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Matching of event set, sequence, fire once and batch actions, expected fires are those of the matching Flow had
+// before it moved to the event index, sink records "<action><T|F>" for each fire
+public class EventMatcherTest {
+    private final List<String> listFired = new ArrayList<>();
+    private final EventMatcher matcher = new EventMatcher(new EventMatcher.Sink() {
+        @Override public void onFire(EventMatcher.Action action, boolean bSuccess) {
+            listFired.add(action.id() + (bSuccess ? "T" : "F"));
+            action.snapshot().recycle();
+        }
+    });
+
+    private EventMatcher.Action register(int iAction, boolean bSequence, boolean bFireOnce, String... events) {
+        EventMatcher.Action action = new EventMatcher.Action(iAction, matcher.eventKeys(events), bSequence, bFireOnce);
+        matcher.register(action);
+        return action;
+    }
+
+    private void events(String... events) {
+        for (String sEvent : events) {
+            boolean bSuccess = !sEvent.startsWith("!");
+            matcher.event(bSuccess ? sEvent : sEvent.substring(1), bSuccess, 0, null);
+        }
+    }
+
+    private void assertFired(String... fired) {
+        assertEquals(Arrays.asList(fired), listFired);
+        listFired.clear();
+    }
+
+    @Test
+    public void eventSetFiresWhenResultChanges() {
+        register(1, false, false, "a", "b", "c");
+        events("a", "b");
+        assertFired();
+        events("c");
+        assertFired("1T");
+        events("a", "b");                                           // same result, no fire
+        assertFired();
+        events("!b");
+        assertFired("1F");
+        events("!a");
+        assertFired();
+        events("a", "b");
+        assertFired("1T");
+    }
+
+    @Test
+    public void eventsInAnyOrderCompleteSet() {
+        register(1, false, false, "a", "b", "c");
+        events("c", "a", "c", "b");
+        assertFired("1T");
+    }
+
+    @Test
+    public void sequenceFiresOnlyInOrder() {
+        register(1, true, false, "a", "b", "c");
+        events("b", "c");                                           // a not fired yet, ignored
+        assertFired();
+        events("a", "c");                                           // b skipped, a is reset
+        assertFired();
+        events("b", "c");                                           // a was reset, so b and c are ignored
+        assertFired();
+        events("a", "b", "c");
+        assertFired("1T");
+    }
+
+    @Test
+    public void sequenceIgnoresEventsOfOtherActions() {
+        register(1, true, false, "a", "b", "c");
+        register(2, false, false, "x");
+        events("a", "x", "b", "x", "c");
+        assertFired("2T", "1T");
+    }
+
+    @Test
+    public void fireOnceActionIsRemovedAfterFiring() {
+        EventMatcher.Action action = register(1, false, true, "a", "b");
+        events("a", "b");
+        assertFired("1T");
+        events("!a", "a", "b");
+        assertFired();
+        assertFalse(matcher.unRegister(1));
+        assertTrue(action.isFireOnce());
+    }
+
+    @Test
+    public void registerReplacesActionWithSameId() {
+        register(1, false, false, "a");
+        register(1, false, false, "b");
+        events("a");
+        assertFired();
+        events("b");
+        assertFired("1T");
+    }
+
+    @Test
+    public void replacedAndUnRegisteredActionsReturnEventsToPool() {
+        for (int i = 0; i < 1000; i++) { register(1, false, false, "a", "b", "c"); }   // replaced 999 times
+        assertTrue(matcher.unRegister(1));
+        for (int i = 0; i < 1000; i++) {
+            register(2, false, false, "a", "b");
+            assertTrue(matcher.unRegister(2));
+        }
+        EventMatcher.EventPool pool = matcher.eventPool();
+        assertEquals(6, pool.misses());                             // replacing action obtains before old one is recycled
+        assertEquals(998 * 3 + 1000 * 2, pool.hits());
+        assertEquals(6, pool.size());
+    }
+
+    @Test
+    public void unRegisteredActionDoesNotFire() {
+        register(1, false, false, "a");
+        assertTrue(matcher.unRegister(1));
+        events("a");
+        assertFired();
+    }
+
+    @Test
+    public void eventWithKeyMatchesEventWithName() {
+        register(1, false, false, "a", "b");
+        EventMatcher.EventKey keyA = matcher.eventKey("a");
+        matcher.event(keyA, true, 0, null);
+        matcher.event("b", true, 0, null);
+        assertFired("1T");
+    }
+
+    @Test
+    public void batchFiresSameAsSingleEvents() {
+        String arrEvents[] = {"a", "c", "!a", "b", "a", "x", "!c", "c", "b"};
+        for (int iRun = 0; iRun < 2; iRun++) {
+            matcher.clear();
+            register(1, false, false, "a", "b", "c");
+            register(2, true, false, "a", "b");
+            register(3, false, true, "b", "c");
+            if (iRun == 0) {
+                for (String sEvent : arrEvents) {
+                    events(sEvent);
+                    listFired.add("|");
+                }
+            } else {
+                for (String sEvent : arrEvents) {               // one event per batch, each commit checks once
+                    boolean bSuccess = !sEvent.startsWith("!");
+                    matcher.beginBatch().event(bSuccess ? sEvent : sEvent.substring(1), bSuccess).commit();
+                    listFired.add("|");
+                }
+            }
+        }
+        int iHalf = listFired.size() / 2;
+        assertEquals(listFired.subList(0, iHalf), listFired.subList(iHalf, listFired.size()));
+    }
+
+    @Test
+    public void batchChecksEachActionOnceOnCommit() {
+        register(1, false, false, "a", "b");
+        EventMatcher.Batch batch = matcher.beginBatch();
+        batch.event("a", true).event("b", true).event("b", false).event("b", true);
+        assertFired();
+        batch.commit();
+        assertFired("1T");
+    }
+
+    @Test
+    public void keyMadeBeforeClearIsRejected() {
+        EventMatcher.EventKey keyOld = matcher.eventKey("old");
+        matcher.clear();
+        register(1, false, false, "new");
+        EventMatcher.EventKey keyNew = matcher.eventKey("new");
+        assertFalse(keyOld.id() == keyNew.id());
+        try {
+            matcher.event(keyOld, true, 0, null);
+            fail("stale key accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertFired();
+        matcher.event(keyNew, true, 0, null);
+        assertFired("1T");
+    }
+
+    @Test
+    public void snapshotShowsEventValues() {
+        register(1, false, false, "a", "b");
+        final EventMatcher.Result arrResult[] = new EventMatcher.Result[1];
+        EventMatcher m = new EventMatcher(new EventMatcher.Sink() {
+            @Override public void onFire(EventMatcher.Action action, boolean bSuccess) { arrResult[0] = action.snapshot(); }
+        });
+        m.register(new EventMatcher.Action(1, m.eventKeys("a", "b"), false, false));
+        m.event("a", true, 5, "five");
+        m.event("b", false, 0, null);
+        EventMatcher.Result result = arrResult[0];
+        assertFalse(result.isSuccess());
+        assertEquals(5, result.extra(result.indexOf("a")));
+        assertEquals("five", result.obj(0));
+        assertEquals(EventMatcher.FAILURE, result.status(1));
+        result.recycle();
+    }
+
+    @Test
+    public void idleActionTimesOutOnce() {
+        VirtualScheduler clock = new VirtualScheduler(0);
+        EventMatcher m = timedMatcher(clock);
+        m.register(new EventMatcher.Action(1, m.eventKeys("a", "b"), false, false).timeout(100));
+        clock.advanceBy(1000);                                      // ten periods with no event
+        assertFired("1F");
+        m.event("a", true, 0, null);                                // new cycle starts timeout again
+        clock.advanceBy(99);
+        assertFired();
+        clock.advanceBy(1000);
+        assertFired("1F");
+    }
+
+    @Test
+    public void firedActionTimesOutOnlyAfterNextEvent() {
+        VirtualScheduler clock = new VirtualScheduler(0);
+        EventMatcher m = timedMatcher(clock);
+        m.register(new EventMatcher.Action(1, EventPattern.compile("a then b"), m.eventKeys("a", "b"), false).timeout(100));
+        m.event("a", true, 0, null);
+        m.event("b", true, 0, null);
+        assertFired("1T");
+        clock.advanceBy(1000);                                      // complete and idle, nothing to time out
+        assertFired();
+        m.event("a", true, 0, null);
+        clock.advanceBy(50);
+        m.event("a", true, 0, null);                                // same cycle, timeout still counts from first a
+        clock.advanceBy(50);
+        assertFired("1F");
+        clock.advanceBy(1000);
+        assertFired();
+    }
+
+    @Test
+    public void timeoutTakenByWheelIsIgnoredIfActionFiresFirst() throws InterruptedException {
+        final VirtualScheduler clock = new VirtualScheduler(0);
+        EventMatcher m = timedMatcher(clock);
+        EventMatcher.Action action = new EventMatcher.Action(1, m.eventKeys("x", "y"), false, false).timeout(100);
+        m.register(action);
+        m.event("x", true, 0, null);
+        Thread driver = new Thread(new Runnable() {
+            @Override public void run() { clock.advanceBy(100); }
+        });
+        synchronized (action) {                                     // timeout expires, then waits for action lock
+            driver.start();
+            long iGiveUp = System.currentTimeMillis() + 5000;
+            while (driver.getState() != Thread.State.BLOCKED) {
+                if (System.currentTimeMillis() > iGiveUp) fail("timeout did not reach action lock");
+                Thread.yield();
+            }
+            m.event("y", true, 0, null);                            // completes set before timeout gets the lock
+        }
+        driver.join();
+        assertFired("1T");
+        m.event("x", false, 0, null);                               // set was not reset by the stale timeout
+        assertFired("1F");
+    }
+
+    private EventMatcher timedMatcher(VirtualScheduler clock) {
+        return new EventMatcher(new EventMatcher.Sink() {
+            @Override public void onFire(EventMatcher.Action action, boolean bSuccess) {
+                listFired.add(action.id() + (bSuccess ? "T" : "F"));
+                action.snapshot().recycle();
+            }
+        }, EventMatcher.EventPool.DEFAULT_SIZE, clock);
+    }
+}
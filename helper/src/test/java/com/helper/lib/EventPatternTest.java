@@ -0,0 +1,94 @@
+package com.helper.lib;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+// Pattern compile and matching, events are fed to the compiled state machine as the matcher does
+public class EventPatternTest {
+
+    // METHOD runs events through pattern, returns positions of events that completed a match
+    private static String matches(String sPattern, String... events) {
+        EventPattern pattern = EventPattern.compile(sPattern);
+        StringBuilder buf = new StringBuilder();
+        int iState = 0;
+        for (int i = 0; i < events.length; i++) {
+            int iSymbol = Arrays.asList(pattern.symbols()).indexOf(events[i]);
+            if (iSymbol == -1) continue;                            // not waited for, never reaches pattern
+            iState = pattern.next(iState, iSymbol);
+            if (pattern.isMatch(iState)) {
+                buf.append(i).append(' ');
+                iState = 0;
+            }
+        }
+        return buf.toString().trim();
+    }
+
+    private static void assertInvalid(String sPattern, String sMessage) {
+        try {
+            EventPattern.compile(sPattern);
+            fail("compiled {" + sPattern + "}");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(sMessage));
+        }
+    }
+
+    @Test
+    public void thenNeedsOrder() {
+        assertEquals("2", matches("a then b", "b", "a", "b"));
+        assertEquals("2", matches("a then b", "a", "c", "b"));     // events in between are skipped
+    }
+
+    @Test
+    public void orTakesEither() {
+        assertEquals("0 1", matches("a or b", "a", "b"));
+        assertEquals("1 3", matches("(a or b) then c", "b", "c", "a", "c"));
+    }
+
+    @Test
+    public void repeatCountsEvents() {
+        assertEquals("4", matches("login then 3*retry", "retry", "login", "retry", "retry", "retry"));
+        assertEquals("1", matches("2\u00D7a", "a", "a", "a"));
+        assertEquals("5", matches("2*(a then b)", "a", "b", "b", "a", "a", "b"));
+    }
+
+    @Test
+    public void withoutResetsPattern() {
+        assertEquals("", matches("login then 2*fail without ok", "login", "fail", "ok", "fail"));
+        assertEquals("5", matches("login then 2*fail without ok", "login", "fail", "ok", "login", "fail", "fail"));
+        assertEquals("", matches("a then b without x or y", "a", "y", "b"));
+    }
+
+    @Test
+    public void patternMatchesAgainAfterMatch() {
+        assertEquals("1 3", matches("a then b", "a", "b", "a", "b"));
+    }
+
+    @Test
+    public void symbolsListPatternEventsThenWithoutEvents() {
+        EventPattern pattern = EventPattern.compile("(a or b) then a without c");
+        assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(pattern.symbols()));
+        assertEquals("(a or b) then a without c", pattern.toString());
+    }
+
+    @Test
+    public void invalidPatternsReportPosition() {
+        assertInvalid("", "Event name expected at end of pattern");
+        assertInvalid("a then", "Event name expected at end of pattern, at 6");
+        assertInvalid("(a or b", "Missing ')'");
+        assertInvalid("a b", "Unexpected 'b', at 2");
+        assertInvalid("0*a", "Repeat count must be 1..64");
+        assertInvalid("65*a", "Repeat count must be 1..64");
+        assertInvalid("a then or", "Event name expected, found 'or'");
+        assertInvalid("a without a", "is used in pattern and after 'without'");
+    }
+
+    @Test
+    public void largePatternIsRejected() {
+        assertInvalid("64*(a then 64*b)", "needs more than");
+    }
+}
@@ -0,0 +1,118 @@
+package com.helper.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// Timing wheel driven by a VirtualScheduler, each timer records the clock it expired at
+public class TimerWheelTest {
+    private final VirtualScheduler clock = new VirtualScheduler(0);
+    private final List<String> listExpired = new ArrayList<>();
+
+    // CLASS timer that records name and clock when it expires
+    private final class Named extends TimerWheel.Timer {
+        private final String sName;
+        Named(String sName) { this.sName = sName; }
+        @Override protected void onExpire() { listExpired.add(sName + "@" + clock.now()); }
+    }
+
+    private Named schedule(String sName, long iDeadline) {
+        Named timer = new Named(sName);
+        clock.schedule(timer, iDeadline);
+        return timer;
+    }
+
+    @Test
+    public void timersExpireInDeadlineOrder() {
+        schedule("c", 30);
+        schedule("a", 10);
+        schedule("b", 20);
+        assertEquals(3, clock.advanceBy(100));
+        assertEquals(Arrays.asList("a@10", "b@20", "c@30"), listExpired);
+        assertEquals(0, clock.size());
+    }
+
+    @Test
+    public void sameDeadlineKeepsScheduleOrder() {
+        for (int i = 0; i < 5; i++) { schedule("t" + i, 7); }
+        clock.advanceBy(7);
+        assertEquals(Arrays.asList("t0@7", "t1@7", "t2@7", "t3@7", "t4@7"), listExpired);
+    }
+
+    @Test
+    public void timersOfHigherLevelsCascadeToExactDeadline() {
+        long arrDeadlines[] = {63, 64, 65, 4095, 4096, 4097, 262143, 262145, 16777217L, 5L << 36};
+        for (long iDeadline : arrDeadlines) { schedule("t", iDeadline); }
+        assertEquals(arrDeadlines.length, clock.advanceTo(6L << 36));
+        List<String> listExpected = new ArrayList<>();
+        for (long iDeadline : arrDeadlines) { listExpected.add("t@" + iDeadline); }
+        assertEquals(listExpected, listExpired);
+    }
+
+    @Test
+    public void advanceStopsAtTarget() {
+        schedule("a", 100);
+        assertEquals(0, clock.advanceBy(99));
+        assertEquals(99, clock.now());
+        assertEquals(100, clock.nextDeadline());
+        assertEquals(1, clock.advanceBy(1));
+        assertEquals(Long.MAX_VALUE, clock.nextDeadline());
+    }
+
+    @Test
+    public void cancelledTimerDoesNotExpire() {
+        Named a = schedule("a", 10);
+        Named b = schedule("b", 5000);
+        schedule("c", 20);
+        assertTrue(clock.cancel(a));
+        assertTrue(clock.cancel(b));                                // b waits in a higher level
+        assertFalse(clock.cancel(a));
+        clock.advanceBy(10000);
+        assertEquals(Arrays.asList("c@20"), listExpired);
+        assertFalse(a.isScheduled());
+    }
+
+    @Test
+    public void cancelAfterExpiryReturnsFalse() {
+        Named a = schedule("a", 10);
+        clock.advanceBy(10);
+        assertFalse(clock.cancel(a));
+    }
+
+    @Test
+    public void rescheduleMovesTimer() {
+        Named a = schedule("a", 10);
+        schedule("b", 20);
+        clock.schedule(a, 30);
+        assertEquals(2, clock.size());
+        clock.advanceBy(50);
+        assertEquals(Arrays.asList("b@20", "a@30"), listExpired);
+    }
+
+    @Test
+    public void pastDeadlineExpiresOnNextAdvance() {
+        clock.advanceBy(100);
+        schedule("late", 50);
+        assertEquals(1, clock.advanceBy(0));
+        assertEquals(Arrays.asList("late@100"), listExpired);
+    }
+
+    @Test
+    public void timerMayScheduleItselfFromOnExpire() {
+        final int arrRuns[] = new int[1];
+        TimerWheel.Timer timer = new TimerWheel.Timer() {
+            @Override protected void onExpire() {
+                if (++arrRuns[0] < 5) clock.schedule(this, clock.now() + 100);
+            }
+        };
+        clock.schedule(timer, 100);
+        clock.advanceBy(10000);
+        assertEquals(5, arrRuns[0]);
+    }
+}